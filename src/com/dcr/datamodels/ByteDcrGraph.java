@@ -4,9 +4,6 @@ import com.dcr.statistics.Confidence;
 import com.dcr.statistics.Threshold;
 
 import java.util.*;
-import java.util.stream.Collectors;
-
-import static com.dcr.utils.Utility.CloneByteArray;
 
 /// <summary>
 /// A compressed DcrGraph implementation, that can only run activities, and which cannot be dynamically built
@@ -19,13 +16,27 @@ public class ByteDcrGraph
     private HashMap<String, Integer> ActivityIdToIndex = new HashMap<>();
     public HashMap<String, Integer> getActivityIdToIndex() { return ActivityIdToIndex; }
 
-    private List<Byte> State;
-    public List<Byte> getState() { return State; }
+    private DcrState State;
+    public DcrState getState() { return State; }
+
+    // Relations compiled into bitmask-rows: Row i holds, as a bit-set over activity indexes, the targets of activity i
+    // (for ConditionsReversed: the condition-sources of activity i). Each row is DcrState.WidthFor(n) longs wide.
+    private long[][] Includes;
+    private long[][] Excludes;
+    private long[][] Responses;
+    private long[][] ConditionsReversed;
+    // Reverse dependency index: Row i holds the targets of the conditions from activity i, which are the only activities
+    // (besides i itself) whose runnability can change when the included- or executed-status of i changes
+    private long[][] ConditionTargets;
+
+    // Scratch-buffers for ExecuteActivity (never shared between copies)
+    private long[] _changed;
+    private long[] _affected;
 
-    private HashMap<Integer, HashSet<Integer>> Includes = new HashMap<>();
-    private HashMap<Integer, HashSet<Integer>> Excludes = new HashMap<>();
-    private HashMap<Integer, HashSet<Integer>> Responses = new HashMap<>();
-    private HashMap<Integer, HashSet<Integer>> ConditionsReversed = new HashMap<>();
+    // Undo log of (word-index, previous value) entries - only recorded after EnableUndoLog (never shared between copies)
+    private int[] _undoIndexes;
+    private long[] _undoValues;
+    private int _undoSize;
 
 
     public ByteDcrGraph(DcrGraph inputGraph, ByteDcrGraph comparisonGraph)
@@ -49,6 +60,14 @@ public class ByteDcrGraph
             }
         }
 
+        int activityCount = State.getActivityCount();
+        int width = DcrState.WidthFor(activityCount);
+        Includes = new long[activityCount][width];
+        Excludes = new long[activityCount][width];
+        Responses = new long[activityCount][width];
+        ConditionsReversed = new long[activityCount][width];
+        ConditionTargets = new long[activityCount][width];
+
         // Set up relations
         for (Map.Entry<Activity, HashMap<Activity, Confidence>> inclExcl : inputGraph.getIncludeExcludes().entrySet())
         {
@@ -60,25 +79,11 @@ public class ByteDcrGraph
                 if (targetPair.getValue().get() > Threshold.getValue())
                 {
                     // INCLUSION
-                    if (Includes.containsKey(source))
-                    {
-                        Includes.get(source).add(target);
-                    }
-                    else
-                    {
-                        Includes.put(source, new HashSet<>(Arrays.asList(target)));
-                    }
+                    SetBit(Includes[source], target);
                 }
                 else // EXCLUSION
                 {
-                    if (Excludes.containsKey(source))
-                    {
-                        Excludes.get(source).add(target);
-                    }
-                    else
-                    {
-                        Excludes.put(source, new HashSet<>(Arrays.asList(target)));
-                    }
+                    SetBit(Excludes[source], target);
                 }
             }
         }
@@ -89,15 +94,7 @@ public class ByteDcrGraph
 
             for (Activity target : DcrGraph.FilterHashMapByThreshold(response.getValue()))
             {
-                int targetIdx = ActivityIdToIndex.get(target.getId());
-                if (Responses.containsKey(source))
-                {
-                    Responses.get(source).add(targetIdx);
-                }
-                else
-                {
-                    Responses.put(source, new HashSet<>(Arrays.asList(targetIdx)));
-                }
+                SetBit(Responses[source], ActivityIdToIndex.get(target.getId()));
             }
         }
 
@@ -107,16 +104,26 @@ public class ByteDcrGraph
             for (Activity target : DcrGraph.FilterHashMapByThreshold(condition.getValue()))
             {
                 int targetIdx = ActivityIdToIndex.get(target.getId());
-                if (ConditionsReversed.containsKey(targetIdx))
-                {
-                    ConditionsReversed.get(targetIdx).add(source);
-                }
-                else
-                {
-                    ConditionsReversed.put(targetIdx, new HashSet<>(Arrays.asList(source)));
-                }
+                SetBit(ConditionsReversed[targetIdx], source);
+                SetBit(ConditionTargets[source], targetIdx);
             }
         }
+
+        if (comparisonGraph != null)
+        {
+            // The state was copied, but which activities can run depends on this graph's own conditions
+            RefreshRunnable();
+        }
+    }
+
+    private static void SetBit(long[] row, int idx)
+    {
+        row[idx >>> 6] |= 1L << idx;
+    }
+
+    private static void ClearBit(long[] row, int idx)
+    {
+        row[idx >>> 6] &= ~(1L << idx);
     }
 
     public ByteDcrGraph Copy()
@@ -127,7 +134,7 @@ public class ByteDcrGraph
     public ByteDcrGraph(ByteDcrGraph copyFrom)
     {
         // Deep copy of state (because value-typed array)
-        State = CloneByteArray(copyFrom.getState());
+        State = copyFrom.getState().Copy();
 
         // Shallow copy of Id correspondences
         IndexToActivityId = copyFrom.IndexToActivityId;
@@ -138,24 +145,96 @@ public class ByteDcrGraph
         Excludes = copyFrom.Excludes;
         Responses = copyFrom.Responses;
         ConditionsReversed = copyFrom.ConditionsReversed;
+        ConditionTargets = copyFrom.ConditionTargets;
     }
 
+    /// <summary>
+    /// Removes the activity by excluding it for good: Its state is cleared and no activity includes it anymore. The
+    /// responses to it are kept, as they always were - see RemoveActivity(id, true). Unlike before the runnable-bits
+    /// were updated incrementally, the condition-targets the activity blocked become runnable right away, rather than
+    /// once the next activity is executed.
+    /// </summary>
     public void RemoveActivity(String id)
+    {
+        RemoveActivity(id, false);
+    }
+
+    /// <param name="fixPending">Whether to drop the responses to the activity as well, so that its pending-status stays
+    /// cleared and it no longer multiplies the state-space. As the activity is never included again, this keeps the
+    /// language - but a depth-first search of trace-sets (CompareTraces) cuts traces short at other states then, so its
+    /// result may differ. Only meant for graphs whose languages are compared exactly.</param>
+    public void RemoveActivity(String id, boolean fixPending)
     {
         int index = ActivityIdToIndex.get(id);
 
         // Exclude the activity
-        State.set(index, (byte)0);
+        State.ClearActivity(index);
         // Ensure activity can never be included (removing it as an include-target from all activities)
-        Includes = new HashMap<>(Includes.entrySet().stream()
-                .map(x -> new AbstractMap.SimpleEntry<>(
-                        x.getKey(),
-                        new HashSet<>(x.getValue().stream().filter(ac -> ac != index).collect(Collectors.toList()))))
-                .collect(Collectors.toMap(x -> x.getKey(), x -> x.getValue())));
+        // NOTE: The rows are shared with the graph we were copied from, so the altered rows are cloned first
+        long[][] includes = new long[Includes.length][];
+        for (int i = 0; i < Includes.length; i++)
+        {
+            includes[i] = Includes[i].clone();
+            ClearBit(includes[i], index);
+        }
+        Includes = includes;
+        if (fixPending)
+        {
+            // ... which also makes its pending-status irrelevant: Dropping the responses to it keeps it constant
+            long[][] responses = new long[Responses.length][];
+            for (int i = 0; i < Responses.length; i++)
+            {
+                responses[i] = Responses[i].clone();
+                ClearBit(responses[i], index);
+            }
+            Responses = responses;
+        }
+
+        // The activity may have been blocking its condition-targets
+        RefreshRunnable();
 
         // Thus essentially removed (cheapest method)
     }
 
+    /// <summary>
+    /// A copy of this graph (in its current state) without the given relation, sharing all other relation-rows with it:
+    /// A candidate for removal, compiled without going through a DcrGraph.
+    /// </summary>
+    public ByteDcrGraph WithoutRelation(RelationType relationType, int source, int target)
+    {
+        ByteDcrGraph res = Copy();
+        switch (relationType)
+        {
+            case Inclusion:
+                res.Includes = WithoutBit(Includes, source, target);
+                break;
+            case Exclusion:
+                res.Excludes = WithoutBit(Excludes, source, target);
+                break;
+            case Response:
+                res.Responses = WithoutBit(Responses, source, target);
+                break;
+            case Condition:
+                res.ConditionsReversed = WithoutBit(ConditionsReversed, target, source);
+                res.ConditionTargets = WithoutBit(ConditionTargets, source, target);
+                // The target may have been blocked by the source
+                long[] affected = new long[State.Width];
+                SetBit(affected, target);
+                res.UpdateRunnable(affected);
+                break;
+        }
+        return res;
+    }
+
+    // Clones only the altered row
+    private static long[][] WithoutBit(long[][] rows, int row, int idx)
+    {
+        long[][] res = rows.clone();
+        res[row] = rows[row].clone();
+        ClearBit(res[row], idx);
+        return res;
+    }
+
     /*private static HashMap<int, HashSet<int>> RemoveIndexFromCollection(HashMap<int, HashSet<int>> dict, int index)
     {
         // Remove imperatively (single-core performance, since nothing else is thread-safe anyways):
@@ -182,24 +261,40 @@ public class ByteDcrGraph
     public List<Integer> GetRunnableIndexes()
     {
         List<Integer> resList = new ArrayList<>();
-        for (int i = 0; i < State.size(); i++)
+        long[] words = State.Words;
+        int width = State.Width;
+        for (int w = 0; w < width; w++)
         {
-            if (CanByteRun(State.get(i)))
+            long runnable = words[DcrState.RUNNABLE * width + w];
+            while (runnable != 0)
             {
-                resList.add(i);
+                resList.add((w << 6) + Long.numberOfTrailingZeros(runnable));
+                runnable &= runnable - 1;
             }
         }
         return resList;
     }
 
-    private boolean ActivityCanRun(int idx)
+    /// <summary>
+    /// Writes the indexes of all runnable activities, in ascending order, to the start of the given buffer.
+    /// </summary>
+    /// <param name="buffer">Must be able to hold an index for every activity of the graph</param>
+    /// <returns>The amount of runnable activities written</returns>
+    public int FillRunnableIndexes(int[] buffer)
     {
-        if (!IsByteIncluded(State.get(idx))) return false;
-        if (ConditionsReversed.containsKey(idx))
+        int count = 0;
+        long[] words = State.Words;
+        int width = State.Width;
+        for (int w = 0; w < width; w++)
         {
-            return ConditionsReversed.get(idx).stream().allMatch(source -> IsByteExcludedOrExecuted(State.get(source)));
+            long runnable = words[DcrState.RUNNABLE * width + w];
+            while (runnable != 0)
+            {
+                buffer[count++] = (w << 6) + Long.numberOfTrailingZeros(runnable);
+                runnable &= runnable - 1;
+            }
         }
-        return true;
+        return count;
     }
 
     /// <summary>
@@ -208,124 +303,384 @@ public class ByteDcrGraph
     /// <param name="idx">The Byte array index of the activity to be executed</param>
     public void ExecuteActivity(int idx)
     {
-        // Executed = true
-        int execInt = (State.get(idx)) | (1 << 2);
-        State.set(idx, (byte)execInt);                                         // TODO: Does this work in runtime?
-        // Pending = false
-        int pendingInt = ((State.get(idx)) & (1 ^ Byte.MAX_VALUE));
-        State.set(idx, (byte)pendingInt);                                      // TODO: Does this work in runtime?
+        long[] words = State.Words;
+        int width = State.Width;
+        int pending = DcrState.PENDING * width, included = DcrState.INCLUDED * width,
+                executed = DcrState.EXECUTED * width, runnable = DcrState.RUNNABLE * width;
+
+        if (_affected == null)
+        {
+            _changed = new long[width];
+            _affected = new long[width];
+        }
+        long[] changed = _changed, affected = _affected;
+
+        // Executed = true, Pending = false
+        boolean newlyExecuted = (words[executed + (idx >>> 6)] & (1L << idx)) == 0;
+        WriteWord(executed + (idx >>> 6), words[executed + (idx >>> 6)] | 1L << idx);
+        WriteWord(pending + (idx >>> 6), words[pending + (idx >>> 6)] & ~(1L << idx));
+
+        // Execute Includes, Excludes, Responses - remembering which activities changed their included-status
+        long[] includes = Includes[idx], excludes = Excludes[idx], responses = Responses[idx];
+        for (int w = 0; w < width; w++)
+        {
+            long before = words[included + w];
+            long after = (before | includes[w]) & ~excludes[w];
+            WriteWord(included + w, after);
+            WriteWord(pending + w, words[pending + w] | responses[w]);
+            changed[w] = before ^ after;
+            affected[w] = changed[w];
+        }
 
-        // Execute Includes, Excludes, Responses
-        if (Includes.containsKey(idx))
+        // Only the activities that changed included-status, and the condition-targets of activities that changed
+        // included- or executed-status, can have changed runnability
+        for (int w = 0; w < width; w++)
         {
-            for (int inclusion : Includes.get(idx)) // Outgoing Includes
+            long sources = changed[w];
+            while (sources != 0)
             {
-                SetActivityIncludedExcluded(true, inclusion);
+                OrInto(affected, ConditionTargets[(w << 6) + Long.numberOfTrailingZeros(sources)]);
+                sources &= sources - 1;
             }
         }
-        if (Excludes.containsKey(idx))
+        if (newlyExecuted)
+        {
+            OrInto(affected, ConditionTargets[idx]);
+        }
+
+        UpdateRunnable(affected);
+    }
+
+    /// <summary>
+    /// Re-evaluates the runnable-bit of every activity in the given bit-set.
+    /// An activity can run if it is included, and none of its condition-sources are included and not executed.
+    /// </summary>
+    private void UpdateRunnable(long[] activities)
+    {
+        long[] words = State.Words;
+        int width = State.Width;
+        int included = DcrState.INCLUDED * width, executed = DcrState.EXECUTED * width, runnable = DcrState.RUNNABLE * width;
+        for (int w = 0; w < width; w++)
         {
-            for (int exclusion : Excludes.get(idx)) // Outgoing Includes
+            long toUpdate = activities[w];
+            long runnableWord = words[runnable + w];
+            while (toUpdate != 0)
             {
-                SetActivityIncludedExcluded(false, exclusion);
+                int i = (w << 6) + Long.numberOfTrailingZeros(toUpdate);
+                boolean canRun = (words[included + w] & (1L << i)) != 0
+                        && ConditionsAreMet(ConditionsReversed[i], words, included, executed, width);
+                if (canRun) runnableWord |= 1L << i;
+                else runnableWord &= ~(1L << i);
+                toUpdate &= toUpdate - 1;
             }
+            WriteWord(runnable + w, runnableWord);
         }
-        if (Responses.containsKey(idx))
+    }
+
+    /// <summary>
+    /// Single point of mutation for the state words while executing, so that every change can be undone (and the
+    /// fingerprint of the state is updated incrementally).
+    /// </summary>
+    private void WriteWord(int index, long value)
+    {
+        long[] words = State.Words;
+        long old = words[index];
+        if (old == value) return;
+        if (_undoIndexes != null)
         {
-            for (int response : Responses.get(idx)) // Outgoing Includes
+            if (_undoSize == _undoIndexes.length)
             {
-                SetActivityPending(response);
+                _undoIndexes = Arrays.copyOf(_undoIndexes, _undoSize * 2);
+                _undoValues = Arrays.copyOf(_undoValues, _undoSize * 2);
             }
+            _undoIndexes[_undoSize] = index;
+            _undoValues[_undoSize] = old;
+            _undoSize++;
+        }
+        State.SetWord(index, value);
+    }
+
+    /// <summary>
+    /// Overwrites the state of this graph with a copy of the given state (e.g. to continue a traversal from a state reached
+    /// elsewhere). Any recorded undo log is discarded.
+    /// </summary>
+    public void SetState(DcrState state)
+    {
+        State.CopyFrom(state);
+        _undoSize = 0;
+    }
+
+    /// <summary>
+    /// Starts recording every change ExecuteActivity makes to the state, allowing in-place traversal of the state-space:
+    /// Execute forwards on this one graph, and roll back with UndoTo when backtracking, rather than copying per branch.
+    /// </summary>
+    public void EnableUndoLog()
+    {
+        if (_undoIndexes == null)
+        {
+            _undoIndexes = new int[64];
+            _undoValues = new long[64];
+            _undoSize = 0;
         }
+    }
 
-        for (int i = 0; i < State.size(); i++)
+    /// <summary>
+    /// Position in the undo log identifying the current state - pass to UndoTo to return to it.
+    /// </summary>
+    public int getUndoMark()
+    {
+        return _undoSize;
+    }
+
+    /// <summary>
+    /// Rolls the state back to what it was when the given mark was taken with getUndoMark.
+    /// </summary>
+    public void UndoTo(int mark)
+    {
+        while (_undoSize > mark)
         {
-            if (ActivityCanRun(i))
+            _undoSize--;
+            State.SetWord(_undoIndexes[_undoSize], _undoValues[_undoSize]);
+        }
+    }
+
+    /// <summary>
+    /// Re-evaluates the runnable-bit of all activities - needed whenever the state or relations are altered
+    /// other than through ExecuteActivity.
+    /// </summary>
+    public void RefreshRunnable()
+    {
+        long[] all = new long[State.Width];
+        for (int i = 0; i < State.getActivityCount(); i++)
+        {
+            SetBit(all, i);
+        }
+        UpdateRunnable(all);
+    }
+
+    /// <summary>
+    /// Re-evaluates the runnable-bit of the given activities (a bit-set) only - e.g. those of ComputeChangedActivities,
+    /// when a state of another graph is set.
+    /// </summary>
+    public void RefreshRunnable(long[] activities)
+    {
+        UpdateRunnable(activities);
+    }
+
+    /// <summary>
+    /// Static independence relation of the activities, derived from the relations: Row a holds, as a bit-set, the
+    /// activities b for which executing a and b in either order - in any state where both can run - reaches the same
+    /// state, without either execution enabling or disabling the other. That holds when neither includes or excludes
+    /// the other or its condition-sources, they do not include and exclude a common activity, and neither makes the
+    /// other pending.
+    /// </summary>
+    public long[][] ComputeIndependence()
+    {
+        int activityCount = State.getActivityCount();
+        int width = State.Width;
+        long[][] independence = new long[activityCount][width];
+        for (int a = 0; a < activityCount; a++)
+        {
+            for (int b = a + 1; b < activityCount; b++)
             {
-                SetActivityRunnable(i);
+                if (AreIndependent(a, b, width))
+                {
+                    SetBit(independence[a], b);
+                    SetBit(independence[b], a);
+                }
             }
-            else
+        }
+        return independence;
+    }
+
+    private boolean AreIndependent(int a, int b, int width)
+    {
+        if (HasBit(Responses[a], b) || HasBit(Responses[b], a)) return false;
+        // Neither may change the included-status of the other or of its condition-sources
+        if (HasBit(Includes[a], b) || HasBit(Excludes[a], b) || HasBit(Includes[b], a) || HasBit(Excludes[b], a)) return false;
+        for (int w = 0; w < width; w++)
+        {
+            long changedByA = Includes[a][w] | Excludes[a][w], changedByB = Includes[b][w] | Excludes[b][w];
+            if ((changedByA & ConditionsReversed[b][w]) != 0 || (changedByB & ConditionsReversed[a][w]) != 0) return false;
+            // Including and excluding the same activity does not commute
+            if ((Includes[a][w] & Excludes[b][w]) != 0 || (Excludes[a][w] & Includes[b][w]) != 0) return false;
+        }
+        return true;
+    }
+
+    /// <summary>
+    /// Over-approximation of the activities that can ever run from the current state, as the least fixpoint of:
+    /// An activity may run if it may be included - it is included now, or an activity that may run includes it - and
+    /// each of its condition-sources may be excluded or executed - it is so now, or an activity that may run excludes
+    /// it, or it may run itself. Every activity not in the result is dead: No reachable state lets it run.
+    /// </summary>
+    public long[] ComputeLiveActivities()
+    {
+        int activityCount = State.getActivityCount();
+        int width = State.Width;
+        long[] words = State.Words;
+        long[] live = new long[width];
+        long[] mayBeIncluded = new long[width];
+        long[] mayBeUnblocking = new long[width]; // Excluded or executed
+        for (int w = 0; w < width; w++)
+        {
+            mayBeIncluded[w] = words[DcrState.INCLUDED * width + w];
+            mayBeUnblocking[w] = ~words[DcrState.INCLUDED * width + w] | words[DcrState.EXECUTED * width + w];
+        }
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int a = 0; a < activityCount; a++)
             {
-                SetActivityNotRunnable(i);
+                if (HasBit(live, a) || !HasBit(mayBeIncluded, a) || !Covers(mayBeUnblocking, ConditionsReversed[a])) continue;
+
+                SetBit(live, a);
+                SetBit(mayBeUnblocking, a);
+                OrInto(mayBeIncluded, Includes[a]);
+                OrInto(mayBeUnblocking, Excludes[a]);
+                changed = true;
             }
         }
+        return live;
     }
 
-    private void SetActivityIncludedExcluded(boolean include, int idx)
+    /// <summary>
+    /// The dead activities (see ComputeLiveActivities) which can never affect the language either: Those that can
+    /// never be included, and those that are never made pending and never block their condition-targets (because they
+    /// have none, or are executed already). Removing them leaves the language of the graph unchanged.
+    /// </summary>
+    public long[] ComputeInertActivities()
     {
-        if (include)
+        int activityCount = State.getActivityCount();
+        int width = State.Width;
+        long[] words = State.Words;
+        long[] live = ComputeLiveActivities();
+        long[] mayBeIncluded = new long[width];
+        long[] mayBePending = new long[width];
+        for (int w = 0; w < width; w++)
         {
-            // Included = true
-            int includedInt = ((State.get(idx)) | (1 << 1));
-            State.set(idx, (byte)includedInt);                                      // TODO: Does this work in runtime?
+            mayBeIncluded[w] = words[DcrState.INCLUDED * width + w];
+            mayBePending[w] = words[DcrState.PENDING * width + w];
         }
-        else
+        for (int a = 0; a < activityCount; a++)
         {
-            // Included = false
-            int includedInt = ((State.get(idx)) & ((1 << 1) ^ Byte.MAX_VALUE));
-            State.set(idx, (byte)includedInt);                                      // TODO: Does this work in runtime?
+            if (!HasBit(live, a)) continue;
+            OrInto(mayBeIncluded, Includes[a]);
+            OrInto(mayBePending, Responses[a]);
+        }
 
+        long[] inert = new long[width];
+        for (int a = 0; a < activityCount; a++)
+        {
+            if (HasBit(live, a)) continue;
+            boolean blocksNothing = State.IsExecuted(a) || IsEmpty(ConditionTargets[a]);
+            if (!HasBit(mayBeIncluded, a) || (!HasBit(mayBePending, a) && blocksNothing))
+            {
+                SetBit(inert, a);
+            }
         }
+        return inert;
     }
 
-    public static boolean IsFinalState(List<Byte> state) // OK
+    /// <summary>
+    /// Removes the inert activities (see ComputeInertActivities) by RemoveActivity.
+    /// </summary>
+    /// <param name="fixPending">See RemoveActivity - whether their state is fixed entirely, so that they no longer add
+    /// to the state-space of any traversal of the graph.</param>
+    /// <returns>The ids of the removed activities</returns>
+    public List<String> RemoveInertActivities(boolean fixPending)
     {
-        // Must not be any activity which is both Pending and Included
-        return state.stream().noneMatch(t -> IsByteIncluded(t) && IsBytePending(t));
+        long[] inert = ComputeInertActivities();
+        List<String> removed = new ArrayList<>();
+        for (int a = 0; a < State.getActivityCount(); a++)
+        {
+            if (!HasBit(inert, a)) continue;
+            RemoveActivity(IndexToActivityId.get(a), fixPending);
+            removed.add(IndexToActivityId.get(a));
+        }
+        return removed;
     }
 
-    private void SetActivityPending(int idx) // OK
+    private static boolean Covers(long[] set, long[] subset)
     {
-        // Pending = true
-        int pendingInt = ((State.get(idx)) | 1);
-        State.set(idx, (byte)pendingInt);
+        for (int w = 0; w < set.length; w++)
+        {
+            if ((subset[w] & ~set[w]) != 0) return false;
+        }
+        return true;
     }
 
-    private void SetActivityRunnable(int idx)
+    private static boolean IsEmpty(long[] row)
     {
-        int runnableInt = ((State.get(idx)) | (1 << 3));
-        State.set(idx, (byte)runnableInt);
+        for (long word : row)
+        {
+            if (word != 0) return false;
+        }
+        return true;
     }
 
-    private void SetActivityNotRunnable(int idx)
+    /// <summary>
+    /// The activities that behave differently in the given graph (over the same activities): Those whose executions
+    /// have other effects - includes, excludes or responses - or which have other condition-sources.
+    /// In any marking, all other activities can run, and lead to the same marking, in both graphs alike.
+    /// </summary>
+    public long[] ComputeChangedActivities(ByteDcrGraph other)
     {
-        int notRunnableInt = ((State.get(idx)) & ((1 << 3) ^ Byte.MAX_VALUE));
-        State.set(idx, (byte)notRunnableInt);
+        long[] changed = new long[State.Width];
+        for (int a = 0; a < State.getActivityCount(); a++)
+        {
+            if (!RowEquals(Includes, other.Includes, a) || !RowEquals(Excludes, other.Excludes, a)
+                    || !RowEquals(Responses, other.Responses, a) || !RowEquals(ConditionsReversed, other.ConditionsReversed, a))
+            {
+                SetBit(changed, a);
+            }
+        }
+        return changed;
     }
 
-    public static boolean IsByteIncluded(Byte b)
+    private static boolean RowEquals(long[][] rows, long[][] otherRows, int row)
     {
-        return (b & (1 << 1)) > 0;
+        return rows == otherRows || rows[row] == otherRows[row] || Arrays.equals(rows[row], otherRows[row]);
     }
 
-    public static boolean CanByteRun(Byte b)
+    // Read-only access to the compiled relations
+    public boolean HasInclusion(int source, int target) { return HasBit(Includes[source], target); }
+    public boolean HasExclusion(int source, int target) { return HasBit(Excludes[source], target); }
+    public boolean HasResponse(int source, int target) { return HasBit(Responses[source], target); }
+    public boolean HasCondition(int source, int target) { return HasBit(ConditionsReversed[target], source); }
+
+    private static boolean HasBit(long[] row, int idx)
     {
-        return (b & (1 << 3)) > 0;
+        return (row[idx >>> 6] & (1L << idx)) != 0;
     }
 
-    public static boolean IsBytePending(Byte b)
+    private static void OrInto(long[] target, long[] row)
     {
-        return (b & 1) > 0;
+        for (int w = 0; w < target.length; w++)
+        {
+            target[w] |= row[w];
+        }
     }
 
-    // FALSE = Condition is binding and the target cannot execute
-    public static boolean IsByteExcludedOrExecuted(Byte b)
+    private static boolean ConditionsAreMet(long[] conditionSources, long[] words, int included, int executed, int width)
     {
-        return (b & (1 << 1)) <= 0 || (b & (1 << 2)) > 0;
+        for (int w = 0; w < width; w++)
+        {
+            if ((conditionSources[w] & words[included + w] & ~words[executed + w]) != 0) return false;
+        }
+        return true;
     }
 
-    public static boolean IsByteExcludedOrNotPending(Byte b)
+    public static boolean IsFinalState(DcrState state) // OK
     {
-        return (b & (1 << 1)) <= 0 || (b & 1) <= 0;
+        // Must not be any activity which is both Pending and Included
+        return state.IsFinalState();
     }
 
-    public static List<Byte> StateWithExcludedActivitiesEqual(List<Byte> bytes)
+    public static DcrState StateWithExcludedActivitiesEqual(DcrState state)
     {
-        List<Byte> retB = new ArrayList<Byte>(bytes.size());
-        for (Byte b : bytes)
-        {
-            retB.add((byte)(IsByteIncluded(b) ? b : 0));
-        }
-        return retB;
+        return state.WithExcludedActivitiesEqual();
     }
 }
@@ -7,8 +7,6 @@ import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static com.dcr.utils.Utility.CloneByteArray;
-
 // NOTE: This DCR graph representation is biased towards statistical storage for the Contradiction-approach process
 // mining algorithm, in that there is always either an Include or an Exclude - the non-existence of such is only represented
 // if certain activities do not exist in the mapping at all. In other words, statistical knowledge of whether an
@@ -414,6 +412,67 @@ public class DcrGraph {
                 || InRelation(a, Conditions, false);
     }
 
+    /// <summary>
+    /// Partitions the activities into the connected components of the (undirected) relations - includes, excludes and
+    /// responses and conditions not contradicted by the threshold. Activities of different components never affect
+    /// each other, so the language of the graph is the interleaving of the languages of its components.
+    /// </summary>
+    /// <returns>The components, ordered by their first activity by id</returns>
+    public List<HashSet<Activity>> GetConnectedComponents()
+    {
+        ArrayList<Activity> sorted = getActivitiesSortedById();
+        HashMap<Activity, Integer> indexes = new HashMap<>();
+        int[] parents = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++)
+        {
+            indexes.put(sorted.get(i), i);
+            parents[i] = i;
+        }
+
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : IncludeExcludes.entrySet())
+        {
+            for (Activity target : source.getValue().keySet())
+            {
+                Union(parents, indexes.get(source.getKey()), indexes.get(target));
+            }
+        }
+        for (HashMap<Activity, HashMap<Activity, Confidence>> relation : Arrays.asList(Responses, Conditions))
+        {
+            for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : relation.entrySet())
+            {
+                for (Activity target : FilterHashMapByThreshold(source.getValue()))
+                {
+                    Union(parents, indexes.get(source.getKey()), indexes.get(target));
+                }
+            }
+        }
+
+        LinkedHashMap<Integer, HashSet<Activity>> components = new LinkedHashMap<>();
+        for (int i = 0; i < sorted.size(); i++)
+        {
+            components.computeIfAbsent(Find(parents, i), x -> new HashSet<>()).add(sorted.get(i));
+        }
+        return new ArrayList<>(components.values());
+    }
+
+    private static int Find(int[] parents, int i)
+    {
+        while (parents[i] != i)
+        {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void Union(int[] parents, int a, int b)
+    {
+        int rootA = Find(parents, a), rootB = Find(parents, b);
+        // The smaller index becomes the root, so each component is keyed by its first activity
+        if (rootA < rootB) parents[rootB] = rootA;
+        else parents[rootA] = rootB;
+    }
+
     public boolean InRelation(Activity activity, HashMap<Activity, HashSet<Activity>> map) {
         return map.entrySet().stream().anyMatch(x -> x.getKey().equals(activity) && !x.getValue().isEmpty())
                 || (map.entrySet().stream().anyMatch(x -> x.getValue().contains(activity)));
@@ -462,21 +521,26 @@ public class DcrGraph {
     }
 
     // ASSUMPTION: If any difference in activity-set-size, then comparisonGraph has more activities than inputGraph!
-    public static List<Byte> HashDcrGraph(DcrGraph graph, ByteDcrGraph comparisonGraph)
+    public static DcrState HashDcrGraph(DcrGraph graph, ByteDcrGraph comparisonGraph)
     {
         if (comparisonGraph != null)
         {
-            return CloneByteArray(comparisonGraph.getState());
+            return comparisonGraph.getState().Copy();
         }
         else
         {
-            List<Byte> lst = new ArrayList<Byte>(graph.getActivities().size());
+            ArrayList<Activity> sorted = graph.getActivitiesSortedById();
+            DcrState state = new DcrState(sorted.size());
             HashSet<Activity> runnableActivities = graph.GetRunnableActivities();
-            for (Activity act : graph.getActivitiesSortedById())
+            for (int i = 0; i < sorted.size(); i++)
             {
-                lst.add(act.getHashedActivity(runnableActivities.contains(act)));
+                Activity act = sorted.get(i);
+                state.Set(DcrState.RUNNABLE, i, runnableActivities.contains(act));
+                state.Set(DcrState.EXECUTED, i, act.isExecuted());
+                state.Set(DcrState.INCLUDED, i, act.isIncluded());
+                state.Set(DcrState.PENDING, i, act.isPending());
             }
-            return lst;
+            return state;
         }
     }
 
@@ -0,0 +1,263 @@
+package com.dcr.datamodels;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/// <summary>
+/// Primitive-backed state of a ByteDcrGraph.
+/// The four per-activity bits (pending, included, executed, runnable) are stored as four bit-planes of packed longs,
+/// so a state over n activities takes 4 * ceil(n / 64) words instead of a list of n boxed bytes.
+/// Each state carries a Zobrist fingerprint - the XOR of a fixed random key per set bit - which is kept up to date on
+/// every change in O(changed bits), and serves as hash code and as a fast negative in equals.
+/// </summary>
+public class DcrState
+{
+    // Plane indexes - deliberately equal to the bit-positions used by Activity.getHashedActivity
+    public static final int PENDING = 0;
+    public static final int INCLUDED = 1;
+    public static final int EXECUTED = 2;
+    public static final int RUNNABLE = 3;
+    static final int PLANES = 4;
+
+    private final int ActivityCount;
+    public int getActivityCount() { return ActivityCount; }
+
+    // Amount of longs per plane
+    final int Width;
+
+    // Plane p occupies Words[p * Width] to Words[p * Width + Width - 1]
+    final long[] Words;
+
+    private long Fingerprint;
+    public long getFingerprint() { return Fingerprint; }
+
+    public DcrState(int activityCount)
+    {
+        ActivityCount = activityCount;
+        Width = WidthFor(activityCount);
+        Words = new long[PLANES * Width];
+    }
+
+    public DcrState(DcrState copyFrom)
+    {
+        ActivityCount = copyFrom.ActivityCount;
+        Width = copyFrom.Width;
+        Words = copyFrom.Words.clone();
+        Fingerprint = copyFrom.Fingerprint;
+    }
+
+    /// <summary>
+    /// Overwrites this state with the given state over the same activities.
+    /// </summary>
+    void CopyFrom(DcrState other)
+    {
+        System.arraycopy(other.Words, 0, Words, 0, Words.length);
+        Fingerprint = other.Fingerprint;
+    }
+
+    public DcrState Copy()
+    {
+        return new DcrState(this);
+    }
+
+    public static int WidthFor(int activityCount)
+    {
+        return Math.max(1, (activityCount + 63) >>> 6);
+    }
+
+    public boolean Get(int plane, int idx)
+    {
+        return (Words[plane * Width + (idx >>> 6)] & (1L << idx)) != 0;
+    }
+
+    public void Set(int plane, int idx, boolean value)
+    {
+        int w = plane * Width + (idx >>> 6);
+        SetWord(w, value ? Words[w] | 1L << idx : Words[w] & ~(1L << idx));
+    }
+
+    /// <summary>
+    /// Single point of mutation for the words, keeping the fingerprint up to date.
+    /// </summary>
+    void SetWord(int index, long value)
+    {
+        long changed = Words[index] ^ value;
+        while (changed != 0)
+        {
+            Fingerprint ^= KeyOf((index << 6) + Long.numberOfTrailingZeros(changed));
+            changed &= changed - 1;
+        }
+        Words[index] = value;
+    }
+
+    // Zobrist key of the bit at the given position of the words (SplitMix64 of the position)
+    private static long KeyOf(int position)
+    {
+        long z = (position + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /// <summary>
+    /// Clears all bits of the given activity, leaving it excluded, not pending, not executed and not runnable.
+    /// </summary>
+    public void ClearActivity(int idx)
+    {
+        for (int plane = 0; plane < PLANES; plane++)
+        {
+            Set(plane, idx, false);
+        }
+    }
+
+    public boolean IsPending(int idx) { return Get(PENDING, idx); }
+    public boolean IsIncluded(int idx) { return Get(INCLUDED, idx); }
+    public boolean IsExecuted(int idx) { return Get(EXECUTED, idx); }
+    public boolean CanRun(int idx) { return Get(RUNNABLE, idx); }
+
+    // FALSE = Condition is binding and the target cannot execute
+    public boolean IsExcludedOrExecuted(int idx)
+    {
+        return !IsIncluded(idx) || IsExecuted(idx);
+    }
+
+    /// <summary>
+    /// The state of a single activity in the byte-format of Activity.getHashedActivity.
+    /// </summary>
+    public byte getHashedActivity(int idx)
+    {
+        int b = 0;
+        for (int plane = 0; plane < PLANES; plane++)
+        {
+            if (Get(plane, idx)) b |= 1 << plane;
+        }
+        return (byte)b;
+    }
+
+    public boolean IsFinalState()
+    {
+        // Must not be any activity which is both Pending and Included
+        for (int w = 0; w < Width; w++)
+        {
+            if ((Words[PENDING * Width + w] & Words[INCLUDED * Width + w]) != 0) return false;
+        }
+        return true;
+    }
+
+    /// <summary>
+    /// Whether both states have the same pending-, included- and executed-status for every activity - regardless of the
+    /// runnable-status, which also depends on the conditions of the graph the state is in.
+    /// </summary>
+    public boolean HasSameMarking(DcrState other)
+    {
+        for (int w = 0; w < RUNNABLE * Width; w++)
+        {
+            if (Words[w] != other.Words[w]) return false;
+        }
+        return true;
+    }
+
+    public int getRunnableCount()
+    {
+        int count = 0;
+        for (int w = 0; w < Width; w++)
+        {
+            count += Long.bitCount(Words[RUNNABLE * Width + w]);
+        }
+        return count;
+    }
+
+    /// <summary>
+    /// Copy of this state in which all excluded activities have had all of their bits cleared.
+    /// </summary>
+    public DcrState WithExcludedActivitiesEqual()
+    {
+        DcrState res = new DcrState(this);
+        for (int plane = 0; plane < PLANES; plane++)
+        {
+            for (int w = 0; w < Width; w++)
+            {
+                int index = plane * Width + w;
+                res.SetWord(index, res.Words[index] & Words[INCLUDED * Width + w]);
+            }
+        }
+        return res;
+    }
+
+    /// <summary>
+    /// The amount of bytes taken by the packed words of a state over the given amount of activities.
+    /// </summary>
+    public static int ByteSizeFor(int activityCount)
+    {
+        return PLANES * WidthFor(activityCount) * Long.BYTES;
+    }
+
+    /// <summary>
+    /// Writes the packed words of this state to the buffer at the given (absolute) offset - see ByteSizeFor.
+    /// </summary>
+    public void WriteTo(ByteBuffer buffer, int offset)
+    {
+        for (int i = 0; i < Words.length; i++)
+        {
+            buffer.putLong(offset + i * Long.BYTES, Words[i]);
+        }
+    }
+
+    /// <summary>
+    /// Whether the packed words written at the given (absolute) offset of the buffer are those of this state.
+    /// </summary>
+    public boolean EqualsAt(ByteBuffer buffer, int offset)
+    {
+        for (int i = 0; i < Words.length; i++)
+        {
+            if (buffer.getLong(offset + i * Long.BYTES) != Words[i]) return false;
+        }
+        return true;
+    }
+
+    public static DcrState ReadFrom(ByteBuffer buffer, int offset, int activityCount)
+    {
+        DcrState res = new DcrState(activityCount);
+        for (int i = 0; i < res.Words.length; i++)
+        {
+            res.SetWord(i, buffer.getLong(offset + i * Long.BYTES));
+        }
+        return res;
+    }
+
+    /// <summary>
+    /// Well-mixed 64-bit hash of the state (its fingerprint), for open-addressing tables that take their slot from the low bits.
+    /// </summary>
+    public long Hash64()
+    {
+        return Fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) return true;
+        if (!(obj instanceof DcrState)) return false;
+        DcrState other = (DcrState) obj;
+        // Differing fingerprints prove the states differ - the words are only compared when they match
+        return Fingerprint == other.Fingerprint && ActivityCount == other.ActivityCount && Arrays.equals(Words, other.Words);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (int) (Fingerprint ^ (Fingerprint >>> 32));
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < ActivityCount; i++)
+        {
+            if (i > 0) res.append(", ");
+            res.append(getHashedActivity(i));
+        }
+        return res.toString();
+    }
+}
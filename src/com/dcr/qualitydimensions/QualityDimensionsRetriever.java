@@ -2,6 +2,7 @@ package com.dcr.qualitydimensions;
 
 import com.dcr.datamodels.*;
 import com.dcr.statistics.Confidence;
+import com.dcr.traversal.TransitionSystem;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -9,10 +10,17 @@ import java.util.stream.Collectors;
 public class QualityDimensionsRetriever {
 
     public static QualityDimensions Retrieve(DcrGraph graph, Log log) throws Exception {
+        return Retrieve(graph, log, TransitionSystem.Compile(new ByteDcrGraph(graph, null)));
+    }
+
+    /// <summary>
+    /// As Retrieve, with the precision computed over the already compiled transition system of the graph.
+    /// </summary>
+    public static QualityDimensions Retrieve(DcrGraph graph, Log log, TransitionSystem transitionSystem) throws Exception {
         QualityDimensions res = new QualityDimensions();
         res.setFitness(GetFitness(log, graph));
         res.setSimplicity(GetSimplicity(graph));
-        res.setPrecision(GetPrecision(log, graph));
+        res.setPrecision(GetPrecision(log, transitionSystem));
 
         return res;
     }
@@ -106,79 +114,63 @@ public class QualityDimensionsRetriever {
         }
     }
 
+    /// <summary>
+    /// The precision of the graph (in its start-state) - see GetPrecision over its transition system, which is
+    /// compiled here.
+    /// </summary>
     public static double GetPrecision(Log log, DcrGraph graph) {
-        HashMap<List<Byte>, Integer> seenStatesWithRunnableActivityCount = new HashMap<>();
-        HashMap<List<Byte>, HashSet<String>> legalActivitiesExecutedInStates = new HashMap<>();
+        return GetPrecision(log, TransitionSystem.Compile(new ByteDcrGraph(graph, null)));
+    }
 
-        // Expand discovered state-space (Here assuming _inputGraph is in its unmodified start-state)
-        StoreRunnableActivityCount(seenStatesWithRunnableActivityCount, DcrGraph.HashDcrGraph(graph, null), graph.GetRunnableActivities().size());
+    /// <summary>
+    /// Divides the amount of distinct (state, activity)-choices made by replaying the log with the amount of
+    /// activities runnable in the states the log reached, multiplied by 100. Events that cannot run are skipped.
+    /// The log is replayed on the compiled transition system of the graph (in its start-state): Every event is a
+    /// lookup of an edge, and states are plain ids.
+    /// </summary>
+    /// <param name="transitionSystem">Must be complete - a truncated one is rejected, as the states it left
+    /// unexpanded appear to have no runnable activities.</param>
+    public static double GetPrecision(Log log, TransitionSystem transitionSystem) {
+        if (transitionSystem.getCompileResult().isTruncated())
+        {
+            throw new IllegalArgumentException("The transition system was truncated while compiling: " + transitionSystem.getCompileResult());
+        }
+
+        HashSet<Integer> seenStates = new HashSet<>();
+        HashSet<Long> legalActivitiesExecutedInStates = new HashSet<>(); // (state, activity)-pairs
+
+        // Expand discovered state-space
+        seenStates.add(transitionSystem.getInitialState());
 
         for (LogTrace logTrace : log.getTraces())
         {
-            DcrGraph currentGraph = graph.Copy();
-            currentGraph.setRunning(true);
+            int state = transitionSystem.getInitialState();
 
             for (LogEvent logEvent : logTrace.getEvents())
             {
-                try
-                {
-                    List<Byte> hashedGraphBeforeExecution = DcrGraph.HashDcrGraph(currentGraph, null);
-                    if (currentGraph.Execute(currentGraph.getActivity(logEvent.getIdOfActivity())))
-                    {
-                        List<Byte> hashedGraphAfterExecution = DcrGraph.HashDcrGraph(currentGraph, null);
-                        // Store successful choice (execution) of path (option)
-                        StoreSuccessfulPathChoice(legalActivitiesExecutedInStates, hashedGraphBeforeExecution, logEvent.getIdOfActivity());
-                        // Expand discovered state-space
-                        StoreRunnableActivityCount(seenStatesWithRunnableActivityCount, hashedGraphAfterExecution, currentGraph.GetRunnableActivities().size());
-                    }
-                }
-                catch (Exception e)
-                {
-                    // No such activity exists, ignore
-                }
+                Integer activity = transitionSystem.getActivityIdToIndex().get(logEvent.getIdOfActivity());
+                if (activity == null) continue; // No such activity exists, ignore
+
+                int next = transitionSystem.Successor(state, activity);
+                if (next < 0) continue; // Not runnable - the event is skipped
+
+                // Store successful choice (execution) of path (option)
+                legalActivitiesExecutedInStates.add(((long) state << 32) | activity);
+                // Expand discovered state-space
+                seenStates.add(next);
+                state = next;
             }
         }
 
         // Sum up resulting values
-        int legalActivitiesThatCouldHaveBeExecuted = seenStatesWithRunnableActivityCount.values().stream().mapToInt(x -> x).sum();
-        int legalActivitiesExecuted = legalActivitiesExecutedInStates.values().stream().mapToInt(HashSet::size).sum();
+        int legalActivitiesThatCouldHaveBeExecuted = seenStates.stream().mapToInt(transitionSystem::getRunnableCount).sum();
+        int legalActivitiesExecuted = legalActivitiesExecutedInStates.size();
 
         if (legalActivitiesThatCouldHaveBeExecuted == 0)
         {
-            //this means that we don't allow any activities to be executed ('everything is illegal' or empty graph)
-            //and that we don't execute anything (empty log)
-            //we also avoid division by 0
+            // Nothing allowed and nothing executed - also avoids division by 0
             return 100.0;
         }
-        double d1 = legalActivitiesExecuted;
-        double d2 = legalActivitiesThatCouldHaveBeExecuted;
-
-        double res = (d1 / d2) * 100.0;
-        return res;
-
-        //return ((double) legalActivitiesExecuted / (legalActivitiesThatCanBeExecuted + illegalActivitiesExecuted)) * 100.0;
-    }
-
-    private static void StoreSuccessfulPathChoice(HashMap<List<Byte>, HashSet<String>> byteArrToStrings, List<Byte> byteArr, String val)
-    {
-        if (byteArrToStrings.containsKey(byteArr))
-        {
-            // Add given value
-            byteArrToStrings.get(byteArr).add(val);
-        }
-        else
-        {
-            // Initialize set of Strings with given value
-            byteArrToStrings.put(byteArr, new HashSet<>(Collections.singletonList(val)));
-        }
-    }
-
-    private static void StoreRunnableActivityCount(HashMap<List<Byte>, Integer> byteArrToInt, List<Byte> byteArr, Integer val)
-    {
-        if (!byteArrToInt.containsKey(byteArr))
-        {
-            byteArrToInt.put(byteArr, val);
-        }
-        // Otherwise do nothing - the value has been stored previously
+        return ((double) legalActivitiesExecuted / legalActivitiesThatCouldHaveBeExecuted) * 100.0;
     }
 }
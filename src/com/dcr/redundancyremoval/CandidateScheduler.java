@@ -0,0 +1,182 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.Activity;
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.datamodels.RelationType;
+import com.dcr.statistics.Confidence;
+
+import java.util.*;
+
+/// <summary>
+/// Orders removal candidates so that those likely to be redundant are tried first: A relation only matters in the
+/// reachable states in which it has an effect - a response to an activity that is pending already, or an exclusion of
+/// one that is excluded already, changes nothing. So relations are ranked by the amount of reachable states, of a
+/// sample explored breadth-first from the initial state, in which they have an effect. When the sample is the whole
+/// state-space, a relation without any effect is redundant, and so are all such relations together - which is why
+/// group testing tries them as one group. Ties keep the candidates in the order of their activity-ids, so the order is
+/// deterministic.
+/// </summary>
+class CandidateScheduler
+{
+    // The most reachable states to sample - a few comparisons' worth of traversal work
+    static final int SampledStates = 1000;
+
+    private final ByteDcrGraph _graph;
+    private final HashMap<Activity, HashMap<Activity, Confidence>> _includeExcludes;
+    private final HashMap<Activity, Integer> _degree = new HashMap<>();
+    private final HashMap<Activity, Integer> _gated = new HashMap<>(); // The amount of condition-targets
+    private final List<DcrState> _states = new ArrayList<>();
+    private final HashMap<Activity[], Integer> _effects = new HashMap<>(); // Of each candidate ordered so far
+
+    /// <summary>
+    /// The amount of states sampled from the compiled graph - at most maxStates.
+    /// </summary>
+    int getStatesVisited() { return _states.size(); }
+
+    /// <param name="graph">The graph to order the candidates of</param>
+    /// <param name="compiled">The graph compiled, in its initial state</param>
+    /// <param name="maxStates">The most states to sample (capped at SampledStates)</param>
+    CandidateScheduler(DcrGraph graph, ByteDcrGraph compiled, long maxStates)
+    {
+        _graph = compiled;
+        _includeExcludes = graph.getIncludeExcludes();
+
+        HashMap<Activity, HashMap<Activity, Confidence>> responses = new HashMap<>(), conditions = new HashMap<>();
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : graph.getResponses().entrySet())
+        {
+            responses.put(source.getKey(), DcrGraph.FilterHashMapByThresholdAsHashMap(source.getValue()));
+        }
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : graph.getConditions().entrySet())
+        {
+            conditions.put(source.getKey(), DcrGraph.FilterHashMapByThresholdAsHashMap(source.getValue()));
+        }
+        for (Activity activity : graph.getActivities())
+        {
+            _degree.put(activity, 0);
+            _gated.put(activity, 0);
+        }
+        for (HashMap<Activity, HashMap<Activity, Confidence>> relation : Arrays.asList(responses, conditions, _includeExcludes))
+        {
+            for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : relation.entrySet())
+            {
+                for (Activity target : source.getValue().keySet())
+                {
+                    _degree.merge(source.getKey(), 1, Integer::sum);
+                    _degree.merge(target, 1, Integer::sum);
+                }
+            }
+        }
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : conditions.entrySet())
+        {
+            _gated.merge(source.getKey(), source.getValue().size(), Integer::sum);
+        }
+
+        Sample(Math.min(SampledStates, maxStates));
+    }
+
+    // Explores the reachable states breadth-first, until there are no more or the limit is reached
+    private void Sample(long limit)
+    {
+        if (limit <= 0) return;
+        ByteDcrGraph graph = _graph.Copy();
+        HashSet<DcrState> seen = new HashSet<>();
+        seen.add(graph.getState().Copy());
+        _states.add(graph.getState().Copy());
+        for (int next = 0; next < _states.size() && _states.size() < limit; next++)
+        {
+            DcrState state = _states.get(next);
+            graph.SetState(state);
+            for (int activity : graph.GetRunnableIndexes())
+            {
+                graph.SetState(state);
+                graph.ExecuteActivity(activity);
+                if (seen.add(graph.getState().Copy()))
+                {
+                    _states.add(graph.getState().Copy());
+                    if (_states.size() >= limit) return;
+                }
+            }
+        }
+    }
+
+    /// <summary>
+    /// The activities, those involved in the most relations first: Removing one drops all of its relations - and a
+    /// condition-source gates each of its targets - along with its part of every state.
+    /// </summary>
+    List<Activity> OrderActivities(Collection<Activity> activities)
+    {
+        List<Activity> ordered = new ArrayList<>(activities);
+        ordered.sort(Comparator.<Activity>comparingInt(a -> _degree.getOrDefault(a, 0) + _gated.getOrDefault(a, 0))
+                .reversed()
+                .thenComparing(Activity::getId));
+        return ordered;
+    }
+
+    /// <summary>
+    /// Sorts relation candidates (source, target) by the amount of sampled states in which the relation has an effect,
+    /// fewest first.
+    /// </summary>
+    void OrderRelations(RelationType relationType, List<Activity[]> candidates)
+    {
+        for (Activity[] candidate : candidates)
+        {
+            _effects.put(candidate, Effects(relationType, candidate));
+        }
+        candidates.sort(Comparator.<Activity[]>comparingInt(_effects::get)
+                .thenComparing(c -> c[0].getId())
+                .thenComparing(c -> c[1].getId()));
+    }
+
+    /// <returns>Whether the candidate, of those ordered, has an effect in any sampled state</returns>
+    boolean HasEffect(Activity[] candidate)
+    {
+        return _effects.get(candidate) > 0;
+    }
+
+    // The amount of sampled states in which the relation has an effect - executing its source, for includes, excludes
+    // and responses, or keeping its target from running, for conditions
+    private int Effects(RelationType relationType, Activity[] candidate)
+    {
+        Integer source = _graph.getActivityIdToIndex().get(candidate[0].getId());
+        Integer target = _graph.getActivityIdToIndex().get(candidate[1].getId());
+        if (source == null || target == null) return 0; // Removed along with an activity
+        if (relationType == RelationType.Inclusion || relationType == RelationType.Exclusion)
+        {
+            HashMap<Activity, Confidence> targets = _includeExcludes.get(candidate[0]);
+            if (targets == null || !targets.containsKey(candidate[1])) return 0; // Removed along with an activity
+            relationType = targets.get(candidate[1]).isAboveThreshold() ? RelationType.Inclusion : RelationType.Exclusion;
+        }
+
+        int effects = 0;
+        for (DcrState state : _states)
+        {
+            if (HasEffect(state, relationType, source, target)) effects++;
+        }
+        return effects;
+    }
+
+    private boolean HasEffect(DcrState state, RelationType relationType, int source, int target)
+    {
+        switch (relationType)
+        {
+            case Response:
+                // Executing an activity clears its own pending-status before its responses are applied
+                return state.CanRun(source) && (source == target || !state.IsPending(target));
+            case Inclusion:
+                // An exclusion of the same target wins
+                return state.CanRun(source) && !state.IsIncluded(target) && !_graph.HasExclusion(source, target);
+            case Exclusion:
+                return state.CanRun(source) && state.IsIncluded(target);
+            default:
+                if (!state.IsIncluded(target) || state.IsExcludedOrExecuted(source)) return false;
+                // The condition keeps the target from running only if all of its other conditions are met
+                for (int other = 0; other < state.getActivityCount(); other++)
+                {
+                    if (other != source && _graph.HasCondition(other, target) && !state.IsExcludedOrExecuted(other)) return false;
+                }
+                return true;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.Activity;
+import com.dcr.datamodels.DcrGraph;
+import com.dcr.datamodels.Relation;
+import com.dcr.statistics.Confidence;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/// <summary>
+/// The progress of a redundancy removal (see RedundancyRemover.setCheckpoint), in a compact binary file: The input
+/// graph, the output graph so far, the removed relations and counters, and the candidates of the phase in progress
+/// along with how many of them are decided. Activities are written once, and referred to by their position after that.
+/// </summary>
+class RedundancyCheckpoint
+{
+    private static final int Magic = 0x44435252; // "DCRR"
+    private static final int Version = 3;
+
+    // The phases of a removal: Activities, then responses, conditions and includes/excludes - and done
+    static final int ActivityPhase = 0;
+    static final int DonePhase = 4;
+
+    DcrGraph Input;
+    DcrGraph Output;
+
+    boolean GroupTesting;
+    boolean ImpactOrdering;
+    boolean IncrementalCheck;
+    boolean PartialOrderReduction;
+
+    int RedundantRelationsFound;
+    int RedundantActivitiesFound;
+    int ComparisonsMade;
+    long StatesVisited;
+    int RelationsProvenRedundant;
+
+    // (source-id, target-id) of each removed relation
+    final List<String[]> IncludesRemoved = new ArrayList<>();
+    final List<String[]> ExcludesRemoved = new ArrayList<>();
+    final List<String[]> ResponsesRemoved = new ArrayList<>();
+    final List<String[]> ConditionsRemoved = new ArrayList<>();
+
+    int Phase;
+    int Cursor; // The candidates before it are decided
+    // When testing groups: The size of the leading group, and how many candidates of the later groups were redundant
+    int LeadingGroup;
+    int GroupRedundant;
+    int GroupKept;
+    final List<String[]> Candidates = new ArrayList<>(); // The ids of each candidate of the phase, in the order tried
+
+    static List<String[]> Ids(List<Relation> relations)
+    {
+        List<String[]> ids = new ArrayList<>();
+        for (Relation relation : relations)
+        {
+            ids.add(new String[] { relation.getSource().getId(), relation.getTarget().getId() });
+        }
+        return ids;
+    }
+
+    /// <summary>
+    /// Replaces the file as a whole - a run stopped while writing leaves the previous checkpoint intact.
+    /// </summary>
+    void WriteTo(File file) throws IOException
+    {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary))))
+        {
+            out.writeInt(Magic);
+            out.writeInt(Version);
+
+            // All activities of the output graph are in the input graph
+            List<Activity> activities = new ArrayList<>(Input.getActivities());
+            HashMap<String, Integer> positions = new HashMap<>();
+            out.writeInt(activities.size());
+            for (Activity activity : activities)
+            {
+                positions.put(activity.getId(), positions.size());
+                out.writeUTF(activity.getId());
+                out.writeUTF(activity.getName());
+                out.writeBoolean(activity.getRoles() != null);
+                if (activity.getRoles() != null) out.writeUTF(activity.getRoles());
+            }
+            WriteGraph(out, Input, positions);
+            WriteGraph(out, Output, positions);
+
+            out.writeBoolean(GroupTesting);
+            out.writeBoolean(ImpactOrdering);
+            out.writeBoolean(IncrementalCheck);
+            out.writeBoolean(PartialOrderReduction);
+
+            out.writeInt(RedundantRelationsFound);
+            out.writeInt(RedundantActivitiesFound);
+            out.writeInt(ComparisonsMade);
+            out.writeLong(StatesVisited);
+            out.writeInt(RelationsProvenRedundant);
+
+            for (List<String[]> removed : Arrays.asList(IncludesRemoved, ExcludesRemoved, ResponsesRemoved, ConditionsRemoved))
+            {
+                WriteIds(out, removed, positions);
+            }
+
+            out.writeInt(Phase);
+            out.writeInt(Cursor);
+            out.writeInt(LeadingGroup);
+            out.writeInt(GroupRedundant);
+            out.writeInt(GroupKept);
+            WriteIds(out, Candidates, positions);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static RedundancyCheckpoint ReadFrom(File file) throws Exception
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != Magic) throw new Exception("Not a redundancy removal checkpoint: " + file);
+            int version = in.readInt();
+            if (version != Version) throw new Exception("Unsupported checkpoint version " + version + ": " + file);
+
+            RedundancyCheckpoint checkpoint = new RedundancyCheckpoint();
+            // Id, name and roles of each activity
+            String[][] activities = new String[in.readInt()][];
+            for (int i = 0; i < activities.length; i++)
+            {
+                String id = in.readUTF();
+                String name = in.readUTF();
+                activities[i] = new String[] { id, name, in.readBoolean() ? in.readUTF() : null };
+            }
+            checkpoint.Input = ReadGraph(in, activities);
+            checkpoint.Output = ReadGraph(in, activities);
+
+            checkpoint.GroupTesting = in.readBoolean();
+            checkpoint.ImpactOrdering = in.readBoolean();
+            checkpoint.IncrementalCheck = in.readBoolean();
+            checkpoint.PartialOrderReduction = in.readBoolean();
+
+            checkpoint.RedundantRelationsFound = in.readInt();
+            checkpoint.RedundantActivitiesFound = in.readInt();
+            checkpoint.ComparisonsMade = in.readInt();
+            checkpoint.StatesVisited = in.readLong();
+            checkpoint.RelationsProvenRedundant = in.readInt();
+
+            for (List<String[]> removed : Arrays.asList(checkpoint.IncludesRemoved, checkpoint.ExcludesRemoved,
+                    checkpoint.ResponsesRemoved, checkpoint.ConditionsRemoved))
+            {
+                ReadIds(in, removed, activities);
+            }
+
+            checkpoint.Phase = in.readInt();
+            checkpoint.Cursor = in.readInt();
+            checkpoint.LeadingGroup = in.readInt();
+            checkpoint.GroupRedundant = in.readInt();
+            checkpoint.GroupKept = in.readInt();
+            ReadIds(in, checkpoint.Candidates, activities);
+            return checkpoint;
+        }
+    }
+
+    // Activities (with their state) and relations, each in the iteration order of the graph - so that reading them
+    // back in that order yields the same iteration order, and the candidates of later phases come in the same order
+    private static void WriteGraph(DataOutputStream out, DcrGraph graph, HashMap<String, Integer> positions) throws IOException
+    {
+        out.writeInt(graph.getActivities().size());
+        for (Activity activity : graph.getActivities())
+        {
+            out.writeInt(positions.get(activity.getId()));
+            out.writeByte((activity.isIncluded() ? 1 : 0) | (activity.isPending() ? 2 : 0) | (activity.isExecuted() ? 4 : 0));
+        }
+        for (HashMap<Activity, HashMap<Activity, Confidence>> relation
+                : Arrays.asList(graph.getResponses(), graph.getConditions(), graph.getIncludeExcludes()))
+        {
+            out.writeInt(relation.size());
+            for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : relation.entrySet())
+            {
+                out.writeInt(positions.get(source.getKey().getId()));
+                out.writeInt(source.getValue().size());
+                for (Map.Entry<Activity, Confidence> target : source.getValue().entrySet())
+                {
+                    out.writeInt(positions.get(target.getKey().getId()));
+                    out.writeInt(target.getValue().getInvocations());
+                    out.writeInt(target.getValue().getViolations());
+                }
+            }
+        }
+    }
+
+    private static DcrGraph ReadGraph(DataInputStream in, String[][] activities) throws Exception
+    {
+        DcrGraph graph = new DcrGraph();
+        Activity[] byPosition = new Activity[activities.length];
+        int activityCount = in.readInt();
+        for (int i = 0; i < activityCount; i++)
+        {
+            int position = in.readInt();
+            int state = in.readByte();
+            Activity activity = graph.AddActivity(activities[position][0], activities[position][1]);
+            activity.setRoles(activities[position][2]);
+            activity.setIncluded((state & 1) != 0);
+            activity.setPending((state & 2) != 0);
+            activity.setExecuted((state & 4) != 0);
+            byPosition[position] = activity;
+        }
+        for (HashMap<Activity, HashMap<Activity, Confidence>> relation
+                : Arrays.asList(graph.getResponses(), graph.getConditions(), graph.getIncludeExcludes()))
+        {
+            int sourceCount = in.readInt();
+            for (int i = 0; i < sourceCount; i++)
+            {
+                Activity source = byPosition[in.readInt()];
+                HashMap<Activity, Confidence> targets = new HashMap<>();
+                int targetCount = in.readInt();
+                for (int j = 0; j < targetCount; j++)
+                {
+                    Activity target = byPosition[in.readInt()];
+                    int invocations = in.readInt();
+                    targets.put(target, new Confidence(invocations, in.readInt()));
+                }
+                relation.put(source, targets);
+            }
+        }
+        return graph;
+    }
+
+    private static void WriteIds(DataOutputStream out, List<String[]> ids, HashMap<String, Integer> positions) throws IOException
+    {
+        out.writeInt(ids.size());
+        for (String[] candidate : ids)
+        {
+            out.writeByte(candidate.length);
+            for (String id : candidate)
+            {
+                out.writeInt(positions.get(id));
+            }
+        }
+    }
+
+    private static void ReadIds(DataInputStream in, List<String[]> ids, String[][] activities) throws IOException
+    {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++)
+        {
+            String[] candidate = new String[in.readByte()];
+            for (int j = 0; j < candidate.length; j++)
+            {
+                candidate[j] = activities[in.readInt()][0];
+            }
+            ids.add(candidate);
+        }
+    }
+}
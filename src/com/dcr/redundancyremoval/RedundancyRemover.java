@@ -1,10 +1,25 @@
 package com.dcr.redundancyremoval;
 
 import com.dcr.datamodels.*;
+import com.dcr.statistics.Confidence;
+import com.dcr.traversal.IncrementalLanguageChecker;
+import com.dcr.traversal.TraversalBudget;
+import com.dcr.traversal.TraversalResult;
 import com.dcr.traversal.UniqueTraceFinder;
 import com.sun.istack.internal.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 public class RedundancyRemover {
@@ -15,6 +30,8 @@ public class RedundancyRemover {
 
     private DcrGraph OutputDcrGraph;
     public DcrGraph getOutputDcrGraph() { return OutputDcrGraph; }
+    // The output graph compiled (sharing the activity-indexes of the original), kept along with it while removing relations
+    private ByteDcrGraph _outputByteDcrGraph;
 
     private int RedundantRelationsFound;
     public int getRedundantRelationsFound() { return RedundantRelationsFound; }
@@ -27,58 +44,597 @@ public class RedundancyRemover {
     private int RedundantActivitiesFound;
     public int getRedundantActivitiesFound() { return RedundantActivitiesFound; }
 
+    private final AtomicInteger ComparisonsMade = new AtomicInteger();
+    /// <summary>
+    /// The amount of language comparisons of candidate relations made by the last removal - only those whose outcome
+    /// was used: Comparisons discarded by speculation (see RedundancyRemover(int)) are not counted, but their
+    /// traversal work is, in getStatesVisited.
+    /// </summary>
+    public int getComparisonsMade() { return ComparisonsMade.get(); }
+
+    private final AtomicLong StatesVisited = new AtomicLong();
+    /// <summary>
+    /// The amount of states visited by all comparisons of the last removal - the traversal work it took, including that
+    /// of comparisons discarded by speculation and the states sampled for setImpactOrdering. It is this work that
+    /// setMaxStatesVisited bounds.
+    /// </summary>
+    public long getStatesVisited() { return StatesVisited.get(); }
+
+    private final AtomicInteger RelationsProvenRedundant = new AtomicInteger();
+    /// <summary>
+    /// The amount of candidate relations the last removal found redundant by StructuralRules alone, without comparing -
+    /// counted as getComparisonsMade is.
+    /// </summary>
+    public int getRelationsProvenRedundant() { return RelationsProvenRedundant.get(); }
+
+    private StructuralRules _structuralRules; // Of the compiled output graph, while removing relations
+
+    private long MaxMillis = Long.MAX_VALUE;
+    public long getMaxMillis() { return MaxMillis; }
+    /// <summary>
+    /// Bounds the wall-clock time of a removal - making it an anytime removal: Once the time is up, no more candidates
+    /// are compared (and a comparison in progress is cut short), but every removal confirmed so far is kept - the output
+    /// graph has the language of the input graph either way. Candidates proven redundant by StructuralRules are still
+    /// removed, as that takes no traversal. See getUncheckedCandidates for what was left undecided.
+    /// </summary>
+    public void setMaxMillis(long value) { MaxMillis = value; }
+
+    private long MaxStatesVisited = Long.MAX_VALUE;
+    public long getMaxStatesVisited() { return MaxStatesVisited; }
+    /// <summary>
+    /// Bounds the traversal work of a removal (see getStatesVisited) - like setMaxMillis. Comparisons running
+    /// concurrently each get what was left when they started, so the work may exceed the bound by that much.
+    /// </summary>
+    public void setMaxStatesVisited(long value) { MaxStatesVisited = value; }
+
+    private long _deadlineNanos = Long.MAX_VALUE; // Of the removal in progress
+    private AtomicLong _remainingStates; // Of the removal in progress, shared with the removers of its components - null if unbounded
+
+    // Candidates left undecided - untried, or cut short by the budget. Relation candidates by identity
+    private final Set<Activity> _uncheckedActivities = new HashSet<>();
+    private final Set<Activity[]> _uncheckedRelations = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /// <summary>
+    /// The amount of candidate activities and relations the last removal left undecided, because it ran out of budget
+    /// (see setMaxMillis and setMaxStatesVisited) - 0 if it completed. Those candidates are kept in the output graph,
+    /// redundant or not.
+    /// </summary>
+    public int getUncheckedCandidates() { return _uncheckedActivities.size() + _uncheckedRelations.size(); }
+    public boolean isComplete() { return getUncheckedCandidates() == 0; }
+
+    private boolean _incrementalCheck;
+    private IncrementalLanguageChecker _incrementalChecker; // Only while removing relations with incremental checks
+    /// <summary>
+    /// Whether candidate relations are checked by an IncrementalLanguageChecker rather than by CompareTraces: The state
+    /// graph of the output graph is kept, and a candidate is only explored where the removed relation makes a
+    /// difference. As every confirmed removal keeps the language of the output graph, comparing with the output graph
+    /// is comparing with the original. The check is exact, so the result may differ from that of CompareTraces, which
+    /// compares the trace-sets found by its depth-first search. Candidates are checked sequentially, regardless of the
+    /// parallelism.
+    /// </summary>
+    public void setIncrementalCheck(boolean incrementalCheck)
+    {
+        _incrementalCheck = incrementalCheck;
+    }
+
+    private boolean _partialOrderReduction;
+    /// <summary>
+    /// Whether candidates are compared by searching the product of the original and the candidate graph with sleep sets
+    /// (see LanguageEquivalenceChecker.setPartialOrderReduction) rather than by CompareTraces - skipping the redundant
+    /// interleavings of activities that are independent in both. The check is exact, so the result may differ from
+    /// that of CompareTraces, which compares the trace-sets found by its depth-first search.
+    /// </summary>
+    public void setPartialOrderReduction(boolean partialOrderReduction)
+    {
+        _partialOrderReduction = partialOrderReduction;
+    }
+
+    private boolean _impactOrdering;
+    /// <summary>
+    /// Whether candidate activities and relations are tried in the order of CandidateScheduler - activities in the most
+    /// relations, and relations with an effect in the fewest sampled states, first - rather than in the order of the
+    /// graph's hash maps. Sampling the states of each relation phase is traversal work, counted in getStatesVisited.
+    /// With group testing, the candidates without any effect are tried as the first group of their phase: They are
+    /// nearly always redundant, so far fewer comparisons are made. On its own, the order makes as many comparisons. A
+    /// different order may keep different relations, so the result need not be the very same graph, but it has the
+    /// same guarantees.
+    /// </summary>
+    public void setImpactOrdering(boolean impactOrdering)
+    {
+        _impactOrdering = impactOrdering;
+    }
+
+    private boolean _groupTesting;
+    /// <summary>
+    /// Whether candidate relations are tried in groups, bisected only when removing a group changes the language (see
+    /// RemoveRedundantRelationGroup). Groups are sized by the share of candidates found redundant so far (see
+    /// NextGroupSize), as they only pay when most of the compared candidates are redundant. In mined graphs, most are
+    /// not - the relations StructuralRules does not prove redundant are mostly kept - so in the graph's own order,
+    /// groups make about as many comparisons as single candidates. With setImpactOrdering, the candidates without
+    /// effect come first, as one group, and far fewer comparisons are made.
+    /// The result keeps the guarantees of trying one candidate at a time, but need not be the very same graph.
+    /// Groups are tried sequentially, regardless of the parallelism.
+    /// </summary>
+    public void setGroupTesting(boolean groupTesting)
+    {
+        _groupTesting = groupTesting;
+    }
+
+    private File _checkpointFile;
+    private long _checkpointIntervalNanos;
+    private long _lastCheckpointNanos;
+    private RedundancyCheckpoint _resumeFrom; // While resuming, until the phase it was written in is reached
+    // The phase in progress, its candidates and how many of them are decided - kept at the first undecided candidate
+    // once there is one, as the removal cannot be resumed past it
+    private int _phase;
+    private List<String[]> _phaseCandidates = new ArrayList<>();
+    private int _phaseCursor;
+    private int _leadingGroup; // The amount of candidates the ordering puts first as likely redundant, tried as one group
+    private int _groupRedundant; // Of the candidates of the phase's groups after the leading one
+    private int _groupKept;
+    private boolean _progressFrozen;
+
+    /// <summary>
+    /// Makes a removal write its progress to the given file (see RedundancyCheckpoint) at most every intervalMillis,
+    /// and once it is done - so that a run which crashes or is stopped can be continued by Resume. The graph is then
+    /// processed as a whole, rather than by connected component. Once the budget leaves a candidate undecided, the
+    /// progress up to that candidate is written, and no later progress: Resuming tries it, and all the rest, again.
+    /// </summary>
+    /// <param name="intervalMillis">Not negative; Long.MAX_VALUE writes the progress only once done.</param>
+    public void setCheckpoint(File file, long intervalMillis)
+    {
+        if (intervalMillis < 0) throw new IllegalArgumentException("Negative checkpoint interval: " + intervalMillis);
+        _checkpointFile = file;
+        // Saturates rather than wrapping around to a negative interval, which would write at every step
+        _checkpointIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    private final int _parallelism;
+    private ForkJoinPool _pool; // Only while removing relations with a parallelism above 1
+
+    public RedundancyRemover()
+    {
+        this(1);
+    }
+
+    /// <param name="parallelism">The amount of connected components of the graph processed concurrently - or, for a
+    /// connected graph, the amount of relation candidates tried concurrently. The resulting graph does not depend on it.</param>
+    public RedundancyRemover(int parallelism)
+    {
+        _parallelism = Math.max(1, parallelism);
+    }
+
     public DcrGraph RemoveRedundancy(DcrGraph inputGraph) throws Exception {
-        DcrGraph graph = RemoveRedundancyInner(inputGraph, null);
+        StartBudget();
+        List<HashSet<Activity>> components = inputGraph.GetConnectedComponents();
+        if (components.size() > 1 && _checkpointFile == null)
+        {
+            return RemoveRedundancyByComponent(inputGraph, components);
+        }
+        DcrGraph graph = RemoveRedundancyWithinBudget(inputGraph, null);
         return graph;
     }
 
+    private void StartBudget()
+    {
+        long now = System.nanoTime();
+        _deadlineNanos = MaxMillis >= (Long.MAX_VALUE - now) / 1000000 ? Long.MAX_VALUE : now + MaxMillis * 1000000;
+        _remainingStates = MaxStatesVisited == Long.MAX_VALUE ? null : new AtomicLong(MaxStatesVisited);
+    }
+
+    private boolean IsOutOfBudget()
+    {
+        return System.nanoTime() - _deadlineNanos >= 0 && _deadlineNanos != Long.MAX_VALUE
+                || _remainingStates != null && _remainingStates.get() <= 0;
+    }
+
+    // What is left of the budget, for a single comparison - null if the removal is unbounded
+    private TraversalBudget RemainingBudget()
+    {
+        if (_deadlineNanos == Long.MAX_VALUE && _remainingStates == null) return null;
+
+        TraversalBudget budget = new TraversalBudget();
+        if (_deadlineNanos != Long.MAX_VALUE)
+        {
+            budget.setMaxMillis(Math.max(0, (_deadlineNanos - System.nanoTime()) / 1000000));
+        }
+        if (_remainingStates != null)
+        {
+            budget.setMaxStates(Math.max(0, _remainingStates.get()));
+        }
+        return budget;
+    }
+
+    // Accounts for the work of a comparison - returns whether it was decided
+    private boolean CountComparison(TraversalResult result)
+    {
+        CountStates(result.getStatesVisited());
+        return result.isCompleted();
+    }
+
+    private void CountStates(long states)
+    {
+        StatesVisited.addAndGet(states);
+        if (_remainingStates != null) _remainingStates.addAndGet(-states);
+    }
+
+    /// <summary>
+    /// Removes the redundancy of each connected component of the graph on its own, and merges the results: A trace is
+    /// accepted by the graph exactly when its projection onto each component is accepted by that component, so the
+    /// language of the graph is kept when the language of each component is. The components are explored separately -
+    /// summing up their state-spaces rather than multiplying them.
+    /// </summary>
+    private DcrGraph RemoveRedundancyByComponent(DcrGraph inputGraph, List<HashSet<Activity>> components) throws Exception {
+        RedundantRelationsFound = 0;
+        RedundantActivitiesFound = 0;
+        ComparisonsMade.set(0);
+        StatesVisited.set(0);
+        RelationsProvenRedundant.set(0);
+        _uncheckedActivities.clear();
+        _uncheckedRelations.clear();
+
+        List<Callable<RedundancyRemover>> tasks = new ArrayList<>();
+        for (HashSet<Activity> component : components)
+        {
+            DcrGraph subGraph = inputGraph.Copy();
+            for (Activity activity : inputGraph.getActivities())
+            {
+                if (!component.contains(activity)) subGraph.RemoveActivity(activity.getId());
+            }
+            tasks.add(() -> {
+                RedundancyRemover remover = new RedundancyRemover();
+                remover.setGroupTesting(_groupTesting);
+                remover.setImpactOrdering(_impactOrdering);
+                remover.setIncrementalCheck(_incrementalCheck);
+                remover.setPartialOrderReduction(_partialOrderReduction);
+                // Within the budget of the whole graph
+                remover._deadlineNanos = _deadlineNanos;
+                remover._remainingStates = _remainingStates;
+                remover.RemoveRedundancyWithinBudget(subGraph, null);
+                return remover;
+            });
+        }
+
+        List<RedundancyRemover> removers = new ArrayList<>();
+        if (_parallelism == 1)
+        {
+            for (Callable<RedundancyRemover> task : tasks)
+            {
+                removers.add(task.call());
+            }
+        }
+        else
+        {
+            ForkJoinPool pool = new ForkJoinPool(_parallelism);
+            try
+            {
+                for (Future<RedundancyRemover> result : pool.invokeAll(tasks))
+                {
+                    removers.add(GetResult(result));
+                }
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+
+        // Merge: Drop what each component dropped
+        OutputDcrGraph = inputGraph.Copy();
+        for (int i = 0; i < components.size(); i++)
+        {
+            RedundancyRemover remover = removers.get(i);
+            MergeComponent(components.get(i), remover.getOutputDcrGraph());
+
+            RedundantRelationsFound += remover.getRedundantRelationsFound();
+            RedundantActivitiesFound += remover.getRedundantActivitiesFound();
+            ComparisonsMade.addAndGet(remover.getComparisonsMade());
+            StatesVisited.addAndGet(remover.getStatesVisited());
+            RelationsProvenRedundant.addAndGet(remover.getRelationsProvenRedundant());
+            _uncheckedActivities.addAll(remover._uncheckedActivities);
+            _uncheckedRelations.addAll(remover._uncheckedRelations);
+            IncludesRemoved.addAll(remover.IncludesRemoved);
+            ExcludesRemoved.addAll(remover.ExcludesRemoved);
+            ResponsesRemoved.addAll(remover.ResponsesRemoved);
+            ConditionsRemoved.addAll(remover.ConditionsRemoved);
+        }
+        return OutputDcrGraph;
+    }
+
+    private static <T> T GetResult(Future<T> result) throws Exception {
+        try
+        {
+            return result.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    // Removes the activities and the relations among the component's activities that are not in the component's output
+    private void MergeComponent(HashSet<Activity> component, DcrGraph componentOutput) throws Exception {
+        for (Activity activity : component)
+        {
+            if (componentOutput.getActivity(activity.getId()) == null)
+            {
+                OutputDcrGraph.RemoveActivity(activity.getId());
+            }
+        }
+        MergeRelation(component, OutputDcrGraph.getResponses(), componentOutput.getResponses());
+        MergeRelation(component, OutputDcrGraph.getConditions(), componentOutput.getConditions());
+        MergeRelation(component, OutputDcrGraph.getIncludeExcludes(), componentOutput.getIncludeExcludes());
+    }
+
+    private static void MergeRelation(HashSet<Activity> component, HashMap<Activity, HashMap<Activity, Confidence>> relation,
+                                      HashMap<Activity, HashMap<Activity, Confidence>> componentRelation)
+    {
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : relation.entrySet())
+        {
+            if (!component.contains(source.getKey())) continue;
+            HashMap<Activity, Confidence> kept = componentRelation.get(source.getKey());
+            source.getValue().keySet().removeIf(target -> component.contains(target) && (kept == null || !kept.containsKey(target)));
+        }
+    }
+
     public DcrGraph RemoveRedundancyInner(DcrGraph inputGraph, ByteDcrGraph byteDcrFormat) throws Exception {
+        StartBudget();
+        return RemoveRedundancyWithinBudget(inputGraph, byteDcrFormat);
+    }
+
+    /// <summary>
+    /// Continues the removal whose progress was written to the given checkpoint (see setCheckpoint) where it left off:
+    /// With the removals found so far, at the first undecided candidate (with group testing, at the start of its group),
+    /// and with the same group testing, ordering and kind of check - yielding the graph the run would have yielded. The
+    /// budget, parallelism and checkpointing are those of this remover. The input graph is compiled on its own, as by RemoveRedundancy.
+    /// </summary>
+    public DcrGraph Resume(File checkpointFile) throws Exception {
+        RedundancyCheckpoint checkpoint = RedundancyCheckpoint.ReadFrom(checkpointFile);
+        _groupTesting = checkpoint.GroupTesting;
+        _impactOrdering = checkpoint.ImpactOrdering;
+        _incrementalCheck = checkpoint.IncrementalCheck;
+        _partialOrderReduction = checkpoint.PartialOrderReduction;
+        StartBudget();
+        return RemoveRedundancyFrom(checkpoint.Input, null, checkpoint);
+    }
+
+    private DcrGraph RemoveRedundancyWithinBudget(DcrGraph inputGraph, ByteDcrGraph byteDcrFormat) throws Exception {
+        return RemoveRedundancyFrom(inputGraph, byteDcrFormat, null);
+    }
+
+    private DcrGraph RemoveRedundancyFrom(DcrGraph inputGraph, ByteDcrGraph byteDcrFormat, RedundancyCheckpoint resumeFrom) throws Exception {
         RedundantRelationsFound = 0;
         RedundantActivitiesFound = 0;
+        ComparisonsMade.set(0);
+        StatesVisited.set(0);
+        RelationsProvenRedundant.set(0);
+        _uncheckedActivities.clear();
+        _uncheckedRelations.clear();
 
-        //TODO efficiency: use an algorithm to check if the graph is connected and if not then recursively remove redundancy on the subgraphs.
         DcrGraph copy = inputGraph.Copy();
 
         ByteDcrGraph byteDcrGraph = new ByteDcrGraph(copy, byteDcrFormat);
 
-        _uniqueTraceFinder = new UniqueTraceFinder(byteDcrGraph);
-
         _originalInputDcrGraph = copy.Copy();
         OutputDcrGraph = copy;
+        _resumeFrom = resumeFrom;
+        _progressFrozen = false;
+        _lastCheckpointNanos = System.nanoTime();
+
+        // Activities that can never run nor affect acceptance are redundant without any traversal - removing them first
+        // also keeps them out of the state-space of every comparison to come (entirely so, when comparing exactly)
+        for (String inertId : byteDcrGraph.RemoveInertActivities(_partialOrderReduction))
+        {
+            if (resumeFrom != null) continue; // Counted already
+            RedundantRelationsFound += OutputDcrGraph.RemoveActivity(inertId);
+            RedundantActivitiesFound++;
+        }
+
+        _uniqueTraceFinder = new UniqueTraceFinder(byteDcrGraph);
+        if (_partialOrderReduction)
+        {
+            _uniqueTraceFinder.setPartialOrderReduction(true);
+            _uniqueTraceFinder.setCompareByAutomaton(true);
+        }
 
         // Try to remove entire activities at a time and see if the unique traces acquired are the same as the original:
-        for (Activity activity : OutputDcrGraph.getActivities()) {
-            ByteDcrGraph graphCopy = byteDcrGraph.Copy();
+        // Each removal is tried on top of those already found redundant, as they need not be redundant together
+        ByteDcrGraph reducedGraph = byteDcrGraph;
+        List<Activity> activityCandidates;
+        int start = 0;
+        if (resumeFrom != null)
+        {
+            RestoreProgress(resumeFrom);
+            reducedGraph = CompileRestoredOutput(byteDcrGraph);
+            activityCandidates = new ArrayList<>();
+            if (resumeFrom.Phase == RedundancyCheckpoint.ActivityPhase)
+            {
+                for (String[] candidate : resumeFrom.Candidates)
+                {
+                    activityCandidates.add(_originalInputDcrGraph.getActivity(candidate[0]));
+                }
+                start = resumeFrom.Cursor;
+                _resumeFrom = null;
+            }
+        }
+        else
+        {
+            activityCandidates = _impactOrdering
+                    ? new CandidateScheduler(OutputDcrGraph, byteDcrGraph, 0).OrderActivities(OutputDcrGraph.getActivities())
+                    : new ArrayList<>(OutputDcrGraph.getActivities());
+        }
+        List<Activity> activities = activityCandidates;
+        IntPredicate isUncheckedActivity = index -> _uncheckedActivities.contains(activities.get(index));
+        BeginPhase(RedundancyCheckpoint.ActivityPhase, activityCandidates.stream().map(a -> new String[] { a.getId() }).collect(Collectors.toList()), start);
+        for (int i = start; i < activityCandidates.size(); i++) {
+            Activity activity = activityCandidates.get(i);
+            Progress(i, isUncheckedActivity);
+            if (IsOutOfBudget())
+            {
+                _uncheckedActivities.add(activity);
+                continue;
+            }
+            ByteDcrGraph graphCopy = reducedGraph.Copy();
 
-            graphCopy.RemoveActivity(activity.getId());
+            graphCopy.RemoveActivity(activity.getId(), _partialOrderReduction);
 
             //ReportProgress?.Invoke("Removing Activity " + activity.Id); // Java event todo...
 
             // Compare unique traces - if equal activity is redundant
-            if (_uniqueTraceFinder.CompareTraces(graphCopy))
+            TraversalBudget budget = RemainingBudget();
+            if (budget != null) _uniqueTraceFinder.setBudget(budget);
+            boolean redundant = _uniqueTraceFinder.CompareTraces(graphCopy);
+            if (!CountComparison(_uniqueTraceFinder.getLastResult())) _uncheckedActivities.add(activity);
+            if (redundant)
             {
                 // The activity is redundant: Remove it from Output graph (also removing all involved relations (thus also redundant))
                 RedundantRelationsFound += OutputDcrGraph.RemoveActivity(activity.getId());
+                reducedGraph = graphCopy;
 
                 RedundantActivitiesFound++;
             }
         }
+        Progress(activityCandidates.size(), isUncheckedActivity);
 
         // Remove relations and see if the unique traces acquired are the same as the original. If so, the relation is clearly redundant and is removed immediately
         // All the following calls can alter the "OutputDcrGraph"
-        HashSet<Relation> res = RemoveRedundantRelations(RelationType.Response, byteDcrFormat);
+        _outputByteDcrGraph = reducedGraph;
+        _structuralRules = new StructuralRules(reducedGraph);
+        _incrementalChecker = _incrementalCheck ? new IncrementalLanguageChecker(reducedGraph) : null;
+        _pool = _parallelism > 1 ? new ForkJoinPool(_parallelism) : null;
+        try
+        {
+            HashSet<Relation> res = RemoveRedundantRelations(RelationType.Response, 1);
+
+            res.addAll(RemoveRedundantRelations(RelationType.Condition, 2));
 
-        res.addAll(RemoveRedundantRelations(RelationType.Condition, byteDcrFormat));
+            res.addAll(RemoveRedundantRelations(RelationType.Inclusion, 3)); // Handles inclusions + exclusions
 
-        res.addAll(RemoveRedundantRelations(RelationType.Inclusion, byteDcrFormat)); // Handles inclusions + exclusions
+            BeginPhase(RedundancyCheckpoint.DonePhase, new ArrayList<>(), 0);
+            if (!_progressFrozen) WriteCheckpoint();
+        }
+        finally
+        {
+            if (_pool != null) _pool.shutdown();
+            _pool = null;
+            _structuralRules = null;
+            _incrementalChecker = null;
+            _resumeFrom = null;
+        }
 
-        
         return OutputDcrGraph;
     }
 
-    private HashSet<Relation> RemoveRedundantRelations(RelationType relationType, ByteDcrGraph byteDcrFormat)
+    // Takes over the output graph, removals and counters of a checkpoint
+    private void RestoreProgress(RedundancyCheckpoint checkpoint)
+    {
+        OutputDcrGraph = checkpoint.Output;
+        RedundantRelationsFound = checkpoint.RedundantRelationsFound;
+        RedundantActivitiesFound = checkpoint.RedundantActivitiesFound;
+        ComparisonsMade.set(checkpoint.ComparisonsMade);
+        StatesVisited.set(checkpoint.StatesVisited);
+        RelationsProvenRedundant.set(checkpoint.RelationsProvenRedundant);
+        RestoreRelations(IncludesRemoved, RelationType.Inclusion, checkpoint.IncludesRemoved);
+        RestoreRelations(ExcludesRemoved, RelationType.Exclusion, checkpoint.ExcludesRemoved);
+        RestoreRelations(ResponsesRemoved, RelationType.Response, checkpoint.ResponsesRemoved);
+        RestoreRelations(ConditionsRemoved, RelationType.Condition, checkpoint.ConditionsRemoved);
+    }
+
+    private void RestoreRelations(List<Relation> relations, RelationType relationType, List<String[]> ids)
+    {
+        relations.clear();
+        for (String[] relation : ids)
+        {
+            relations.add(new Relation(relationType, _originalInputDcrGraph.getActivity(relation[0]), _originalInputDcrGraph.getActivity(relation[1])));
+        }
+    }
+
+    // The restored output graph compiled like the original run compiled it: The compiled input graph, without the
+    // removed activities and relations
+    private ByteDcrGraph CompileRestoredOutput(ByteDcrGraph byteDcrGraph)
+    {
+        ByteDcrGraph graph = byteDcrGraph.Copy();
+        for (String id : byteDcrGraph.getIndexToActivityId().values())
+        {
+            if (OutputDcrGraph.getActivity(id) == null) graph.RemoveActivity(id, _partialOrderReduction);
+        }
+        HashMap<String, Integer> index = graph.getActivityIdToIndex();
+        for (List<Relation> removed : Arrays.asList(IncludesRemoved, ExcludesRemoved, ResponsesRemoved, ConditionsRemoved))
+        {
+            for (Relation relation : removed)
+            {
+                graph = graph.WithoutRelation(relation.getType(), index.get(relation.getSource().getId()), index.get(relation.getTarget().getId()));
+            }
+        }
+        return graph;
+    }
+
+    private void BeginPhase(int phase, List<String[]> candidates, int cursor)
+    {
+        if (_progressFrozen) return;
+        _phase = phase;
+        _phaseCandidates = candidates;
+        _phaseCursor = cursor;
+    }
+
+    /// <summary>
+    /// Moves the cursor of the phase past the decided ones among the candidates before next, and writes a checkpoint
+    /// when one is due - or when an undecided candidate is found, which the cursor stays at from then on.
+    /// </summary>
+    private void Progress(int next, IntPredicate isUnchecked) throws IOException
+    {
+        if (_progressFrozen) return;
+        while (_phaseCursor < next && !isUnchecked.test(_phaseCursor))
+        {
+            _phaseCursor++;
+        }
+        if (_phaseCursor < next)
+        {
+            WriteCheckpoint();
+            _progressFrozen = true;
+        }
+        else if (System.nanoTime() - _lastCheckpointNanos >= _checkpointIntervalNanos)
+        {
+            WriteCheckpoint();
+        }
+    }
+
+    private void WriteCheckpoint() throws IOException
+    {
+        if (_checkpointFile == null) return;
+
+        RedundancyCheckpoint checkpoint = new RedundancyCheckpoint();
+        checkpoint.Input = _originalInputDcrGraph;
+        checkpoint.Output = OutputDcrGraph;
+        checkpoint.GroupTesting = _groupTesting;
+        checkpoint.ImpactOrdering = _impactOrdering;
+        checkpoint.IncrementalCheck = _incrementalCheck;
+        checkpoint.PartialOrderReduction = _partialOrderReduction;
+        checkpoint.RedundantRelationsFound = RedundantRelationsFound;
+        checkpoint.RedundantActivitiesFound = RedundantActivitiesFound;
+        checkpoint.ComparisonsMade = ComparisonsMade.get();
+        checkpoint.StatesVisited = StatesVisited.get();
+        checkpoint.RelationsProvenRedundant = RelationsProvenRedundant.get();
+        checkpoint.IncludesRemoved.addAll(RedundancyCheckpoint.Ids(IncludesRemoved));
+        checkpoint.ExcludesRemoved.addAll(RedundancyCheckpoint.Ids(ExcludesRemoved));
+        checkpoint.ResponsesRemoved.addAll(RedundancyCheckpoint.Ids(ResponsesRemoved));
+        checkpoint.ConditionsRemoved.addAll(RedundancyCheckpoint.Ids(ConditionsRemoved));
+        checkpoint.Phase = _phase;
+        checkpoint.Cursor = _phaseCursor;
+        checkpoint.LeadingGroup = _leadingGroup;
+        checkpoint.GroupRedundant = _groupRedundant;
+        checkpoint.GroupKept = _groupKept;
+        checkpoint.Candidates.addAll(_phaseCandidates);
+        checkpoint.WriteTo(_checkpointFile);
+        _lastCheckpointNanos = System.nanoTime();
+    }
+
+    private HashSet<Relation> RemoveRedundantRelations(RelationType relationType, int phase) throws Exception
     {
         HashSet<Relation> relationsNotDiscovered = new HashSet<>();
+        if (_resumeFrom != null && _resumeFrom.Phase > phase)
+        {
+            return relationsNotDiscovered; // Done before the checkpoint was written
+        }
         // Determine method input
         HashMap<Activity, HashSet<Activity>> relationHashMap = new HashMap<>();
         switch (relationType)
@@ -101,59 +657,467 @@ public class RedundancyRemover {
         }
 
 
-        // Remove relations and see if the unique traces acquired are the same as the original. If so, the relation is clearly redundant
-        for (Map.Entry<Activity, HashSet<Activity>> relation : relationHashMap.entrySet()) {
-            Activity source = relation.getKey();
+        // The candidates, in the order in which they are tried
+        List<Activity[]> candidates = new ArrayList<>();
+        int start = 0;
+        _leadingGroup = 0;
+        _groupRedundant = 0;
+        _groupKept = 0;
+        if (_resumeFrom != null)
+        {
+            // Those of the checkpoint, continuing at the first undecided one
+            for (String[] candidate : _resumeFrom.Candidates)
+            {
+                candidates.add(new Activity[] { _originalInputDcrGraph.getActivity(candidate[0]), _originalInputDcrGraph.getActivity(candidate[1]) });
+            }
+            start = _resumeFrom.Cursor;
+            _leadingGroup = _resumeFrom.LeadingGroup;
+            _groupRedundant = _resumeFrom.GroupRedundant;
+            _groupKept = _resumeFrom.GroupKept;
+            _resumeFrom = null;
+        }
+        else
+        {
+            for (Map.Entry<Activity, HashSet<Activity>> relation : relationHashMap.entrySet()) {
+                for (Activity target : relation.getValue()) {
+                    candidates.add(new Activity[] { relation.getKey(), target });
+                }
+            }
+            if (_groupTesting)
+            {
+                // Candidates of removed activities are gone already
+                candidates.removeIf(c -> OutputDcrGraph.getActivity(c[0].getId()) == null || OutputDcrGraph.getActivity(c[1].getId()) == null);
+            }
+            if (_impactOrdering)
+            {
+                // Sampling the output graph's states is traversal work within the budget
+                CandidateScheduler scheduler = new CandidateScheduler(OutputDcrGraph, _outputByteDcrGraph,
+                        _remainingStates == null ? Long.MAX_VALUE : _remainingStates.get());
+                CountStates(scheduler.getStatesVisited());
+                if (IsOutOfBudget() && !_progressFrozen)
+                {
+                    // The sample may have been cut short, so the order need not be the one of an unbounded run - resuming
+                    // orders the phase anew, after the progress of the last one
+                    WriteCheckpoint();
+                    _progressFrozen = true;
+                }
+                scheduler.OrderRelations(relationType, candidates);
+                // Those certain to be redundant come first of all - free to remove, and all in the same groups
+                candidates.sort(Comparator.comparing(c -> !IsProvenRedundant(relationType, c)));
+                if (_groupTesting)
+                {
+                    // Those, and the ones without effect in any sampled state, are tried as the first group
+                    int likelyRedundant = 0;
+                    while (likelyRedundant < candidates.size() && (IsProvenRedundant(relationType, candidates.get(likelyRedundant))
+                            || !scheduler.HasEffect(candidates.get(likelyRedundant))))
+                    {
+                        likelyRedundant++;
+                    }
+                    _leadingGroup = likelyRedundant;
+                }
+            }
+        }
+        BeginPhase(phase, candidates.stream().map(c -> new String[] { c[0].getId(), c[1].getId() }).collect(Collectors.toList()), start);
+        IntPredicate isUnchecked = index -> _uncheckedRelations.contains(candidates.get(index));
 
-            for (Activity target : relation.getValue()) {
+        // Remove relations and see if the unique traces acquired are the same as the original. If so, the relation is clearly redundant
+        if (_groupTesting)
+        {
+            // Consecutive groups, growing while whole groups turn out redundant and shrinking when they do not
+            for (int next = start; next < candidates.size(); )
+            {
+                // The leading group of the ordering as a whole, then as many candidates as NextGroupSize
+                int groupStart = next;
+                boolean leading = next < _leadingGroup;
+                next = leading ? _leadingGroup : Math.min(next + NextGroupSize(), candidates.size());
+                List<Activity[]> group = candidates.subList(groupStart, next);
+                if (!RemoveRedundantRelationGroup(relationType, group, false))
+                {
+                    // Resuming tries an undecided group again as a whole, from its start and with its size - the removals
+                    // made before the budget ran out are then gone from it, and its bisection compares the same graphs
+                    Progress(next, index -> index >= groupStart || isUnchecked.test(index));
+                    continue;
+                }
+                // The leading group was expected to be redundant, so it tells nothing of the rest
+                for (Activity[] candidate : leading ? Collections.<Activity[]>emptyList() : group)
+                {
+                    if (IsPresent(relationType, candidate)) _groupKept++;
+                    else _groupRedundant++;
+                }
+                Progress(next, isUnchecked);
+            }
+        }
+        else if (_pool == null || _incrementalChecker != null)
+        {
+            for (int next = start; next < candidates.size(); next++) {
                 //ReportProgress?.Invoke("Removing " + relationType + " from " + source.Id + " to " + target.Id); // Java events todo...
-
-                DcrGraph copy = OutputDcrGraph.Copy(); // "Running copy"
-                Activity copyTarget = copy.getActivity(target.getId());
-
-                Boolean isInclude = null;
-
-                // Attempt to remove the relation
-                switch (relationType) {
-                    case Response:
-                        copy.getResponses().get(copy.getActivity(source.getId())).remove(copyTarget);
-                        break;
-                    case Condition:
-                        copy.getConditions().get(copy.getActivity(source.getId())).remove(copyTarget);
-                        break;
-                    case Inclusion:
-                    case Exclusion:
-                        isInclude = copy.getIncludeExcludes().get(copy.getActivity(source.getId())).get(copyTarget).isAboveThreshold();
-                        copy.getIncludeExcludes().get(copy.getActivity(source.getId())).remove(copyTarget);
-                        break;
+                List<Activity[]> single = Collections.singletonList(candidates.get(next));
+                RemovalOutcome outcome = TryRemoveRelations(relationType, single, _uniqueTraceFinder);
+                if (outcome.CandidateGraph != null)
+                {
+                    CommitRelationRemovals(relationType, single, outcome.CandidateGraph);
                 }
+                Progress(next + 1, isUnchecked);
+            }
+        }
+        else
+        {
+            RemoveRedundantRelationsSpeculatively(relationType, candidates, start, isUnchecked);
+        }
+        return relationsNotDiscovered;
+    }
+
+    /// <summary>
+    /// The amount of candidates to compare in the next group when testing groups: The largest power of two for which a
+    /// group is at least as likely to be redundant as a whole as not, were each candidate redundant with the share of the
+    /// phase's grouped candidates that were - counting one more of either, so a phase starts with single candidates. A
+    /// group that changes the language costs up to a comparison more than trying its candidates one at a time, so
+    /// groups only grow while most candidates turn out redundant, and shrink back to single candidates when most do not.
+    /// </summary>
+    private int NextGroupSize()
+    {
+        double redundantShare = (_groupRedundant + 1.0) / (_groupRedundant + _groupKept + 2);
+        int size = 1;
+        while (Math.pow(redundantShare, size * 2) >= 0.5) size *= 2;
+        return size;
+    }
+
+    /// <summary>
+    /// Group testing: Tries to remove all the candidates at once, and only when that changes the language, the first and
+    /// then the second half of them - each against the graph left by the first half - down to single candidates.
+    /// As with removing one candidate at a time, the language of the output graph stays that of the original, and each
+    /// kept candidate was found not to be redundant on its own in the graph it was tried on. Bisecting stops once the
+    /// budget leaves a removal undecided: Its candidates, and those of the group not tried yet, are left unchecked.
+    /// </summary>
+    /// <param name="knownToChange">Whether removing all the candidates is known to change the language already.</param>
+    /// <returns>Whether all the candidates were decided</returns>
+    private boolean RemoveRedundantRelationGroup(RelationType relationType, List<Activity[]> candidates, boolean knownToChange)
+    {
+        if (candidates.isEmpty()) return true;
+
+        if (!knownToChange)
+        {
+            RemovalOutcome outcome = TryRemoveRelations(relationType, candidates, _uniqueTraceFinder);
+            if (outcome.CandidateGraph != null)
+            {
+                CommitRelationRemovals(relationType, candidates, outcome.CandidateGraph);
+                return true;
+            }
+            if (!outcome.Refuted)
+            {
+                _uncheckedRelations.addAll(candidates);
+                return false;
+            }
+        }
+        if (candidates.size() == 1) return true;
+
+        int half = candidates.size() / 2;
+        List<Activity[]> firstHalf = candidates.subList(0, half), secondHalf = candidates.subList(half, candidates.size());
+        if (!RemoveRedundantRelationGroup(relationType, firstHalf, false))
+        {
+            _uncheckedRelations.addAll(secondHalf);
+            return false;
+        }
+        // With all of the first half removed, removing the second half as well is the removal that was just refuted
+        return RemoveRedundantRelationGroup(relationType, secondHalf, IsRemoved(relationType, firstHalf));
+    }
+
+    // Whether none of the candidates is left in the output graph
+    private boolean IsRemoved(RelationType relationType, List<Activity[]> candidates)
+    {
+        for (Activity[] candidate : candidates)
+        {
+            if (IsPresent(relationType, candidate)) return false;
+        }
+        return true;
+    }
+
+    // Whether the candidate relation is in the output graph - it is not once removed, or removed along with an activity
+    private boolean IsPresent(RelationType relationType, Activity[] candidate)
+    {
+        return OutputDcrGraph.getActivity(candidate[0].getId()) != null && OutputDcrGraph.getActivity(candidate[1].getId()) != null
+                && HasRelation(relationType, candidate);
+    }
 
-                // Compare unique traces - if equal (true), relation is redundant
-                if (_uniqueTraceFinder.CompareTraces(new ByteDcrGraph(copy, byteDcrFormat)))
+    /// <summary>
+    /// Tries windows of as many candidates as there are workers at once, each against the current output graph, and then
+    /// commits their outcomes in candidate order. Once a removal is committed, the outcomes of the later candidates of the
+    /// window were found against an outdated graph: Those refuted by a counterexample that still refutes them against
+    /// the new graph are kept, and the rest are discarded, and tried again in the next window. Thus every committed
+    /// outcome is the one the sequential removal would find, and so is the resulting graph. Counterexamples are only
+    /// reused when comparing by automaton, as only its counterexamples are traces of the languages themselves.
+    /// Candidates decided without comparing are taken on the calling thread, so they never end a window.
+    /// </summary>
+    private void RemoveRedundantRelationsSpeculatively(RelationType relationType, List<Activity[]> candidates, int start,
+                                                       IntPredicate isUnchecked) throws Exception
+    {
+        // The language of the original graph is discovered here, within the budget, if no comparison has needed it yet
+        // (when the activities were all skipped, or when resuming) - the workers' finders only ever read it
+        TraversalBudget budget = RemainingBudget();
+        if (budget != null) _uniqueTraceFinder.setBudget(budget);
+        TraversalResult discovery = _uniqueTraceFinder.DiscoverLanguage();
+        if (discovery != null) CountComparison(discovery);
+
+        // Comparing is not thread-safe - one finder per worker, sharing the language of the original graph
+        ThreadLocal<UniqueTraceFinder> finders = ThreadLocal.withInitial(_uniqueTraceFinder::Copy);
+        int windowSize = _pool.getParallelism();
+
+        int next = start;
+        while (next < candidates.size())
+        {
+            if (!NeedsComparison(relationType, candidates.get(next)))
+            {
+                List<Activity[]> single = Collections.singletonList(candidates.get(next));
+                RemovalOutcome outcome = TryRemoveRelations(relationType, single, _uniqueTraceFinder);
+                if (outcome.CandidateGraph != null)
                 {
-                    // The relation is redundant, replace running copy with current copy (with the relation removed)
-                    OutputDcrGraph = copy;
-
-                    // Report finding:
-                    switch (relationType) {
-                        case Response:
-                            ResponsesRemoved.add(new Relation(RelationType.Response, source, copyTarget));
-                            break;
-                        case Condition:
-                            ConditionsRemoved.add(new Relation(RelationType.Condition, source, copyTarget));
-                            break;
-                        case Inclusion:
-                        case Exclusion:
-                            if (isInclude == null) break;
-                            if (isInclude) { IncludesRemoved.add(new Relation(RelationType.Inclusion, source, copyTarget)); }
-                            else { ExcludesRemoved.add(new Relation(RelationType.Exclusion, source, copyTarget)); }
-                            break;
-                    }
+                    CommitRelationRemovals(relationType, single, outcome.CandidateGraph);
+                }
+                Progress(++next, isUnchecked);
+                continue;
+            }
+
+            List<Activity[]> window = candidates.subList(next, Math.min(next + windowSize, candidates.size()));
+            List<Callable<RemovalOutcome>> tasks = new ArrayList<>();
+            for (Activity[] candidate : window)
+            {
+                tasks.add(() -> AttemptRemoval(relationType, Collections.singletonList(candidate), finders.get()));
+            }
+            List<Future<RemovalOutcome>> outcomes = _pool.invokeAll(tasks);
 
-                    RedundantRelationsFound++;
+            int used = 0;
+            boolean committed = false;
+            while (used < window.size())
+            {
+                RemovalOutcome outcome = GetResult(outcomes.get(used));
+                if (committed && !IsStillRefuted(relationType, window.get(used), outcome)) break; // Tried again
+
+                Count(outcome);
+                used++;
+                if (outcome.CandidateGraph != null)
+                {
+                    CommitRelationRemovals(relationType, Collections.singletonList(window.get(used - 1)), outcome.CandidateGraph);
+                    committed = true;
+                }
+                else if (isUnchecked.test(next + used - 1))
+                {
+                    break; // An undecided outcome (see setMaxMillis) is a barrier: The later outcomes assume it is kept
                 }
             }
+            next += used;
+            Progress(next, isUnchecked);
         }
-        return relationsNotDiscovered;
+    }
+
+    // Whether trying to remove the candidate takes a comparison - unless the budget is spent
+    private boolean NeedsComparison(RelationType relationType, Activity[] candidate)
+    {
+        return !IsOutOfBudget() && IsPresent(relationType, candidate) && !IsProvenRedundant(relationType, candidate);
+    }
+
+    // Whether the candidate, found not to be redundant against an earlier output graph, is surely not redundant against
+    // the current one either
+    private boolean IsStillRefuted(RelationType relationType, Activity[] candidate, RemovalOutcome outcome)
+    {
+        if (outcome.Counterexample == null || !IsPresent(relationType, candidate)) return false;
+        return _uniqueTraceFinder.IsCounterexample(outcome.Counterexample, WithoutCandidate(_outputByteDcrGraph, relationType, candidate));
+    }
+
+    // The outcome of trying to remove candidates, along with what it is to count once used: Removed (with a candidate
+    // graph), refuted, or neither - undecided, as the budget ran out
+    private static class RemovalOutcome
+    {
+        ByteDcrGraph CandidateGraph; // Without the candidates if they are redundant - otherwise null
+        boolean Refuted; // Whether a comparison found that removing the candidates changes the language
+        int Proven; // The amount of candidates StructuralRules proved redundant
+        boolean Compared;
+        List<String> Counterexample; // Refuting the candidates, when the comparison found one
+    }
+
+    // Counts the outcome as used
+    private RemovalOutcome Count(RemovalOutcome outcome)
+    {
+        RelationsProvenRedundant.addAndGet(outcome.Proven);
+        if (outcome.Compared) ComparisonsMade.incrementAndGet();
+        return outcome;
+    }
+
+    /// <summary>
+    /// Compares the language of the output graph without the given relations with that of the original - masking the
+    /// relations out of the compiled output graph, without copying or recompiling the output graph itself. Relations
+    /// that StructuralRules prove redundant need no comparison - the comparison is only made for the undecided ones.
+    /// </summary>
+    /// <returns>The outcome, with the compiled output graph without the relations if they are redundant</returns>
+    private RemovalOutcome TryRemoveRelations(RelationType relationType, List<Activity[]> candidates, UniqueTraceFinder uniqueTraceFinder)
+    {
+        return Count(AttemptRemoval(relationType, candidates, uniqueTraceFinder));
+    }
+
+    /// <summary>
+    /// TryRemoveRelations, without counting the outcome as used. Only reads the output graph, so several candidates may
+    /// be tried at once.
+    /// </summary>
+    private RemovalOutcome AttemptRemoval(RelationType relationType, List<Activity[]> candidates, UniqueTraceFinder uniqueTraceFinder)
+    {
+        RemovalOutcome outcome = new RemovalOutcome();
+        ByteDcrGraph candidateGraph = _outputByteDcrGraph;
+        boolean proven = true;
+        int present = 0;
+        for (Activity[] candidate : candidates)
+        {
+            // Removed along with a redundant activity, or already (when a group is tried again after resuming)
+            if (!IsPresent(relationType, candidate)) continue;
+            // Attempt to remove the relation
+            proven &= IsProvenRedundant(relationType, candidate);
+            candidateGraph = WithoutCandidate(candidateGraph, relationType, candidate);
+            present++;
+        }
+        // Tried again (after a discarded outcome) - or proven, or compared within the budget now
+        Activity[] single = candidates.size() == 1 ? candidates.get(0) : null;
+        if (single != null) _uncheckedRelations.remove(single);
+        if (proven)
+        {
+            // With nothing left to remove, the output graph is the candidate graph
+            outcome.Proven = present;
+            outcome.CandidateGraph = candidateGraph;
+            return outcome;
+        }
+        if (IsOutOfBudget())
+        {
+            // Groups are split up down to single candidates, which are the ones counted
+            if (single != null) _uncheckedRelations.add(single);
+            return outcome;
+        }
+
+        // Compare unique traces - if equal (true), relation is redundant
+        outcome.Compared = true;
+        TraversalBudget budget = RemainingBudget();
+        boolean equivalent;
+        TraversalResult result;
+        if (_incrementalChecker != null)
+        {
+            if (budget != null) _incrementalChecker.setBudget(budget);
+            equivalent = _incrementalChecker.IsEquivalent(candidateGraph);
+            result = _incrementalChecker.getLastResult();
+        }
+        else
+        {
+            if (budget != null) uniqueTraceFinder.setBudget(budget);
+            equivalent = uniqueTraceFinder.CompareTraces(candidateGraph);
+            result = uniqueTraceFinder.getLastResult();
+        }
+        if (!CountComparison(result))
+        {
+            // Cut short, so undecided - groups are split up down to single candidates, which are the ones counted
+            if (single != null) _uncheckedRelations.add(single);
+        }
+        else if (equivalent)
+        {
+            outcome.CandidateGraph = candidateGraph;
+        }
+        else
+        {
+            outcome.Refuted = true;
+            if (_incrementalChecker == null) outcome.Counterexample = uniqueTraceFinder.getComparisonFailureTrace();
+        }
+        return outcome;
+    }
+
+    // The compiled graph without the candidate relation
+    private ByteDcrGraph WithoutCandidate(ByteDcrGraph graph, RelationType relationType, Activity[] candidate)
+    {
+        return graph.WithoutRelation(CompiledRelationType(relationType, candidate),
+                _outputByteDcrGraph.getActivityIdToIndex().get(candidate[0].getId()),
+                _outputByteDcrGraph.getActivityIdToIndex().get(candidate[1].getId()));
+    }
+
+    private boolean HasRelation(RelationType relationType, Activity[] candidate)
+    {
+        HashMap<Activity, HashMap<Activity, Confidence>> relation;
+        switch (relationType)
+        {
+            case Response:
+                relation = OutputDcrGraph.getResponses();
+                break;
+            case Condition:
+                relation = OutputDcrGraph.getConditions();
+                break;
+            default:
+                relation = OutputDcrGraph.getIncludeExcludes();
+                break;
+        }
+        HashMap<Activity, Confidence> targets = relation.get(candidate[0]);
+        return targets != null && targets.containsKey(candidate[1]);
+    }
+
+    // Whether the StructuralRules of the output graph prove the candidate redundant
+    private boolean IsProvenRedundant(RelationType relationType, Activity[] candidate)
+    {
+        if (OutputDcrGraph.getActivity(candidate[0].getId()) == null || OutputDcrGraph.getActivity(candidate[1].getId()) == null)
+        {
+            return false;
+        }
+        return _structuralRules.IsRedundant(CompiledRelationType(relationType, candidate),
+                _outputByteDcrGraph.getActivityIdToIndex().get(candidate[0].getId()),
+                _outputByteDcrGraph.getActivityIdToIndex().get(candidate[1].getId()));
+    }
+
+    // Whether an include/exclude candidate is an include or an exclude
+    private RelationType CompiledRelationType(RelationType relationType, Activity[] candidate)
+    {
+        if (relationType != RelationType.Inclusion && relationType != RelationType.Exclusion) return relationType;
+        return OutputDcrGraph.getIncludeExcludes().get(candidate[0]).get(candidate[1]).isAboveThreshold()
+                ? RelationType.Inclusion
+                : RelationType.Exclusion;
+    }
+
+    // Materializes confirmed removals in the output graph
+    private void CommitRelationRemovals(RelationType relationType, List<Activity[]> candidates, ByteDcrGraph candidateGraph)
+    {
+        if (candidateGraph == _outputByteDcrGraph) return; // None of them was left
+
+        for (Activity[] candidate : candidates)
+        {
+            if (!IsPresent(relationType, candidate)) continue;
+
+            Activity source = candidate[0];
+            Activity target = OutputDcrGraph.getActivity(candidate[1].getId());
+            RelationType compiledRelationType = CompiledRelationType(relationType, candidate);
+
+            // The relation is redundant, remove it from the running graph
+            switch (relationType) {
+                case Response:
+                    OutputDcrGraph.getResponses().get(source).remove(target);
+                    break;
+                case Condition:
+                    OutputDcrGraph.getConditions().get(source).remove(target);
+                    break;
+                case Inclusion:
+                case Exclusion:
+                    OutputDcrGraph.getIncludeExcludes().get(source).remove(target);
+                    break;
+            }
+
+            // Report finding:
+            switch (compiledRelationType) {
+                case Response:
+                    ResponsesRemoved.add(new Relation(RelationType.Response, source, target));
+                    break;
+                case Condition:
+                    ConditionsRemoved.add(new Relation(RelationType.Condition, source, target));
+                    break;
+                case Inclusion:
+                    IncludesRemoved.add(new Relation(RelationType.Inclusion, source, target));
+                    break;
+                case Exclusion:
+                    ExcludesRemoved.add(new Relation(RelationType.Exclusion, source, target));
+                    break;
+            }
+
+            RedundantRelationsFound++;
+        }
+        _outputByteDcrGraph = candidateGraph;
+        _structuralRules = new StructuralRules(candidateGraph);
+        if (_incrementalChecker != null) _incrementalChecker.Rebase(candidateGraph);
     }
 }
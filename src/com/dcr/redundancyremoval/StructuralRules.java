@@ -0,0 +1,74 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.datamodels.RelationType;
+
+/// <summary>
+/// Cheap rules proving relations redundant from the relations and the initial state alone, without exploring any
+/// states. Each rule shows that the relation never has an effect in any reachable state - it never fires, or firing it
+/// changes nothing that matters - so removing it leaves every trace (and its acceptance) as it was:
+///  - Includes, excludes and responses from activities that can never run (see ByteDcrGraph.ComputeLiveActivities)
+///  - Includes of activities that are included and can never be excluded, and includes of the source itself (which
+///    is included whenever it runs)
+///  - Excludes of, and responses to, activities that can never be included (their pending-status never matters)
+///  - Conditions from activities that can never be included, or that are executed already
+/// The analysis holds for the graph it was made on: Make a new one once relations have been removed.
+/// </summary>
+class StructuralRules
+{
+    private final DcrState _initial;
+    private final long[] _live;
+    private final long[] _mayBeIncluded;
+    private final long[] _mayBeExcluded;
+
+    StructuralRules(ByteDcrGraph graph)
+    {
+        _initial = graph.getState();
+        int activityCount = _initial.getActivityCount();
+        int width = DcrState.WidthFor(activityCount);
+        _live = graph.ComputeLiveActivities();
+        _mayBeIncluded = new long[width];
+        _mayBeExcluded = new long[width];
+
+        for (int target = 0; target < activityCount; target++)
+        {
+            boolean mayBeIncluded = _initial.IsIncluded(target), mayBeExcluded = !_initial.IsIncluded(target);
+            for (int source = 0; source < activityCount && !(mayBeIncluded && mayBeExcluded); source++)
+            {
+                if (!HasBit(_live, source)) continue;
+                mayBeIncluded |= graph.HasInclusion(source, target);
+                mayBeExcluded |= graph.HasExclusion(source, target);
+            }
+            if (mayBeIncluded) SetBit(_mayBeIncluded, target);
+            if (mayBeExcluded) SetBit(_mayBeExcluded, target);
+        }
+    }
+
+    /// <returns>Whether removing the relation is proven not to change the language of the graph</returns>
+    boolean IsRedundant(RelationType relationType, int source, int target)
+    {
+        switch (relationType)
+        {
+            case Inclusion:
+                return !HasBit(_live, source) || !HasBit(_mayBeExcluded, target) || source == target;
+            case Exclusion:
+                return !HasBit(_live, source) || !HasBit(_mayBeIncluded, target);
+            case Response:
+                return !HasBit(_live, source) || !HasBit(_mayBeIncluded, target);
+            case Condition:
+                return !HasBit(_mayBeIncluded, source) || _initial.IsExecuted(source);
+        }
+        return false;
+    }
+
+    private static boolean HasBit(long[] row, int idx)
+    {
+        return (row[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    private static void SetBit(long[] row, int idx)
+    {
+        row[idx >>> 6] |= 1L << idx;
+    }
+}
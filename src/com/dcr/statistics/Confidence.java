@@ -16,6 +16,9 @@ public class Confidence {
         _violations = copyFrom._violations;
     }
 
+    public int getInvocations() { return _invocations; }
+    public int getViolations() { return _violations; }
+
     public double get() {
         if (_invocations == 0) return 0;
         return (double) _violations / _invocations;
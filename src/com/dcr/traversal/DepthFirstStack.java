@@ -0,0 +1,127 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.utils.ComparableList;
+
+import java.util.Arrays;
+
+/// <summary>
+/// Explicit stack of depth-first traversal frames over ByteDcrGraph states, replacing one level of Java recursion per
+/// executed activity. Frames, their runnable-index buffers and the buffer holding the current trace are pooled by depth
+/// and reused, so deep state-spaces only cost heap - never native thread-stack.
+/// The traversal runs in-place on a single ByteDcrGraph with its undo log enabled: Each frame remembers the undo mark of
+/// its state, and the graph is rolled back to that mark before executing the frame's next activity.
+/// </summary>
+class DepthFirstStack
+{
+    static class Frame
+    {
+        // The undo mark of the graph while in the state of this frame
+        int UndoMark;
+        // Free for use by the traversal (e.g. the length of a path of states leading to this frame)
+        int PathLength;
+        // Free for use by the traversal (e.g. the sleep set of a partial-order reduction) - kept along with the frame
+        long[] Sleep;
+        private int[] Runnable = new int[0];
+        private int RunnableCount;
+        private int Next;
+
+        int getRunnableCount() { return RunnableCount; }
+
+        boolean HasNext() { return Next < RunnableCount; }
+
+        int NextActivity() { return Runnable[Next++]; }
+
+        /// <summary>
+        /// Drops the runnable activities that are not in the given bit-set from the activities left to execute.
+        /// </summary>
+        void Retain(long[] activities)
+        {
+            int count = Next;
+            for (int i = Next; i < RunnableCount; i++)
+            {
+                int activity = Runnable[i];
+                if ((activities[activity >>> 6] & (1L << activity)) != 0) Runnable[count++] = activity;
+            }
+            RunnableCount = count;
+        }
+    }
+
+    private Frame[] _frames = new Frame[16];
+    private int[] _trace = new int[16];
+    private int _top = -1;
+
+    boolean IsEmpty() { return _top < 0; }
+
+    /// <summary>
+    /// The amount of frames on the stack, which is also the length of the trace leading to the top frame's state.
+    /// </summary>
+    int getDepth() { return _top + 1; }
+
+    /// <summary>
+    /// Pushes a frame for the current state of the given graph, which must have its undo log enabled.
+    /// </summary>
+    Frame Push(ByteDcrGraph graph)
+    {
+        _top++;
+        if (_top == _frames.length)
+        {
+            _frames = Arrays.copyOf(_frames, _frames.length * 2);
+            _trace = Arrays.copyOf(_trace, _trace.length * 2);
+        }
+        Frame frame = _frames[_top];
+        if (frame == null)
+        {
+            frame = new Frame();
+            _frames[_top] = frame;
+        }
+
+        int activityCount = graph.getState().getActivityCount();
+        if (frame.Runnable.length < activityCount)
+        {
+            frame.Runnable = new int[activityCount];
+        }
+        frame.UndoMark = graph.getUndoMark();
+        frame.PathLength = 0;
+        frame.RunnableCount = graph.FillRunnableIndexes(frame.Runnable);
+        frame.Next = 0;
+        return frame;
+    }
+
+    Frame Peek()
+    {
+        return _frames[_top];
+    }
+
+    void Pop()
+    {
+        // Keep the frame (and its buffer) for reuse
+        _top--;
+    }
+
+    void Clear()
+    {
+        _top = -1;
+    }
+
+    /// <summary>
+    /// Records the activity executed from the top frame, making the current trace one longer than the stack is deep.
+    /// </summary>
+    void SetTraceStep(int activity)
+    {
+        _trace[_top] = activity;
+    }
+
+    /// <summary>
+    /// The trace ending with the activity last given to SetTraceStep.
+    /// </summary>
+    ComparableList<Integer> CurrentTrace()
+    {
+        ComparableList<Integer> res = new ComparableList<>();
+        for (int i = 0; i <= _top; i++)
+        {
+            res.add(_trace[i]);
+        }
+        return res;
+    }
+}
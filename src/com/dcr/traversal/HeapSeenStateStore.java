@@ -0,0 +1,108 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.DcrState;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
+
+/// <summary>
+/// Seen-state store backed by an ordinary (or, when used concurrently, a concurrent) hash map on the heap. Without
+/// payload-words each state maps to its (mostly cached) boxed value; with them, to an array of its payload-words
+/// followed by its value, which is replaced rather than modified, so it may be read while another thread stores one.
+/// </summary>
+public class HeapSeenStateStore implements SeenStateStore
+{
+    private final int _payloadWords;
+    private final Map<DcrState, Integer> _values; // Without payload-words
+    private final Map<DcrState, long[]> _entries; // With payload-words
+
+    public HeapSeenStateStore(int activityCount, boolean concurrent)
+    {
+        this(activityCount, 0, concurrent);
+    }
+
+    public HeapSeenStateStore(int activityCount, int payloadWords, boolean concurrent)
+    {
+        _payloadWords = payloadWords;
+        _values = payloadWords > 0 ? null : concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+        _entries = payloadWords == 0 ? null : concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+    }
+
+    @Override
+    public int Get(DcrState state, long[] payload)
+    {
+        if (_entries == null)
+        {
+            Integer value = _values.get(state);
+            return value == null ? ABSENT : value;
+        }
+        long[] entry = _entries.get(state);
+        if (entry == null) return ABSENT;
+        if (payload != null) System.arraycopy(entry, 0, payload, 0, _payloadWords);
+        return (int) entry[_payloadWords];
+    }
+
+    @Override
+    public int Put(DcrState state, int value, long[] payload)
+    {
+        if (_entries == null)
+        {
+            Integer previous = _values.put(state, value);
+            return previous == null ? ABSENT : previous;
+        }
+        int[] previous = { ABSENT };
+        _entries.compute(state, (s, entry) ->
+        {
+            if (entry != null) previous[0] = (int) entry[_payloadWords];
+            return Entry(payload != null ? payload : entry, value);
+        });
+        return previous[0];
+    }
+
+    @Override
+    public boolean PutIfAbsent(DcrState state, int value, long[] payload)
+    {
+        if (_entries == null)
+        {
+            return _values.putIfAbsent(state, value) == null;
+        }
+        return _entries.putIfAbsent(state, Entry(payload, value)) == null;
+    }
+
+    // The payload-words (all zeroes for null) followed by the value
+    private long[] Entry(long[] payload, int value)
+    {
+        long[] entry = payload == null ? new long[_payloadWords + 1] : Arrays.copyOf(payload, _payloadWords + 1);
+        entry[_payloadWords] = value;
+        return entry;
+    }
+
+    @Override
+    public long getSize()
+    {
+        return _entries == null ? _values.size() : _entries.size();
+    }
+
+    @Override
+    public void ForEach(ObjIntConsumer<DcrState> action)
+    {
+        if (_entries == null)
+        {
+            _values.forEach(action::accept);
+        }
+        else
+        {
+            _entries.forEach((state, entry) -> action.accept(state, (int) entry[_payloadWords]));
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (_entries == null) _values.clear();
+        else _entries.clear();
+    }
+}
@@ -0,0 +1,553 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.utils.ComparableList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
+
+/// <summary>
+/// Decides whether variants of a base graph - the base graph with some relations altered, such as candidates for
+/// redundancy removal - accept the same language as the base graph, reusing the state graph of the base graph:
+/// Its reachable states and transitions are explored once (and patched on Rebase), after which a variant is compared by
+/// walking the product of the two from the initial state. As long as both are in the same marking, the variant behaves
+/// like the base graph except for the activities whose relations were altered, so only at those the variant executes
+/// anything - following the kept transitions, by the ids of the base graph's states, otherwise. Once the two diverge,
+/// the pair of states is explored explicitly until they meet in a common marking again, or a trace accepted by only one
+/// of them is found - so only the region the altered activities affect costs more than walking the base state graph.
+/// Like CompareTraces, activities are labelled by their index, so the variants must share the base graph's index mappings.
+/// </summary>
+public class IncrementalLanguageChecker
+{
+    private static final int NONE = -1; // No transition, or the sink on the base graph's side
+    private static final int START = -2; // Reached in step as the initial state
+    private static final int RESYNCED = -3; // Reached in step again from a pair of diverged states
+
+    private ByteDcrGraph _base;
+    private TraversalBudget _budget = TraversalBudget.Unlimited();
+
+    // The state graph of _explored - the base graph, unless rebased since: State i is _states.get(i), and its successor
+    // by activity a is _successors[i * activityCount + a] (NONE if a cannot run) - the initial state is 0
+    private ByteDcrGraph _explored;
+    private ArrayList<DcrState> _states;
+    private int[] _successors;
+    private boolean[] _leadsToAcceptance;
+    private long _baseStatesExplored; // By the last call of ExploreBase - 0 if the state graph was up to date
+
+    // Per state of the base graph, in the last comparison: The state the variant first reached it from in the same
+    // marking, and by which activity - NONE if it did not, START or RESYNCED (see _resynced) otherwise
+    private int[] _syncedFrom = new int[0];
+    private int[] _syncedBy = new int[0];
+    private final HashMap<Integer, Node> _resynced = new HashMap<>(); // The pair each state was reached in step again from
+
+    private ComparableList<Integer> Counterexample;
+    /// <summary>
+    /// A trace accepted by only one of the graphs in the last comparison - null if they were equivalent.
+    /// </summary>
+    public ComparableList<Integer> getCounterexample() { return Counterexample; }
+
+    private long PairsVisited;
+    /// <summary>
+    /// The amount of pairs of diverged states explored by the last comparison - those are the only ones executing activities.
+    /// </summary>
+    public long getPairsVisited() { return PairsVisited; }
+
+    private TraversalResult LastResult;
+    /// <summary>
+    /// Whether the last comparison completed, or was truncated by the budget (counting the states of the base graph it
+    /// explored, if any, and pairs of diverged states) - in which case it was reported as not equivalent, without a
+    /// counterexample.
+    /// </summary>
+    public TraversalResult getLastResult() { return LastResult; }
+
+    public IncrementalLanguageChecker(ByteDcrGraph base)
+    {
+        _base = base.Copy();
+    }
+
+    public void setBudget(TraversalBudget budget)
+    {
+        _budget = budget;
+    }
+
+    /// <summary>
+    /// Makes the given graph (e.g. a variant found equivalent) the base graph of the comparisons to come. Its state
+    /// graph is derived on the next comparison, from that of the previous base graph: Only the activities the two
+    /// graphs differ in are executed in the markings they share - see PatchBase.
+    /// </summary>
+    public void Rebase(ByteDcrGraph base)
+    {
+        _base = base.Copy();
+    }
+
+    /// <summary>
+    /// The amount of reachable states of the base graph - exploring them, if not done yet.
+    /// </summary>
+    public int getBaseStateCount()
+    {
+        ExploreBase();
+        return _states.size();
+    }
+
+    // A pair of diverged states of the product - the states in the same marking are only tracked by their base ids
+    private static class Node
+    {
+        final int Left; // State of the base graph, or NONE for the sink
+        final DcrState Right; // State of the variant, or null for the sink
+        final Node Previous; // null for the first pair diverged from a state in the same marking
+        final int From; // That state, of the first pair
+        final int Activity;
+
+        Node(int left, DcrState right, Node previous, int from, int activity)
+        {
+            Left = left;
+            Right = right;
+            Previous = previous;
+            From = from;
+            Activity = activity;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Node)) return false;
+            Node other = (Node) obj;
+            return Left == other.Left && Objects.equals(Right, other.Right);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Left + Objects.hashCode(Right);
+        }
+    }
+
+    public boolean IsEquivalent(ByteDcrGraph variant)
+    {
+        Counterexample = null;
+        PairsVisited = 0;
+        TraversalBudget.Monitor monitor = _budget.Start();
+        if (!ExploreBase(monitor))
+        {
+            LastResult = monitor.Result(_baseStatesExplored, 0);
+            return false; // Out of budget: Undecided
+        }
+
+        int activityCount = _base.getState().getActivityCount();
+        int stateCount = _states.size();
+        long[] changed = _base.ComputeChangedActivities(variant);
+        ByteDcrGraph graph = variant.Copy();
+
+        if (_syncedFrom.length < stateCount)
+        {
+            _syncedFrom = new int[stateCount];
+            _syncedBy = new int[stateCount];
+        }
+        Arrays.fill(_syncedFrom, 0, stateCount, NONE);
+        _resynced.clear();
+        // Breadth-first, so the graphs are found to diverge as early as possible - the states in the same marking first,
+        // as they execute nothing unless a changed activity can run
+        int[] synced = new int[stateCount];
+        int syncedHead = 0, syncedTail = 0;
+        _syncedFrom[0] = START;
+        synced[syncedTail++] = 0;
+        HashSet<Node> seen = new HashSet<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+
+        while (syncedHead < syncedTail || !queue.isEmpty())
+        {
+            if (!monitor.Continue(_baseStatesExplored + PairsVisited, 0))
+            {
+                LastResult = monitor.Result(_baseStatesExplored + PairsVisited, 0);
+                return false; // Out of budget: Undecided
+            }
+
+            if (syncedHead < syncedTail)
+            {
+                // The same marking in both graphs: Only the changed activities can behave differently
+                int left = synced[syncedHead++];
+                DcrState state = null;
+                for (int activity = 0; activity < activityCount; activity++)
+                {
+                    int successor = _successors[left * activityCount + activity];
+                    if (!HasBit(changed, activity))
+                    {
+                        if (successor != NONE) syncedTail = Sync(synced, syncedTail, successor, left, activity, null);
+                        continue;
+                    }
+                    if (state == null)
+                    {
+                        graph.SetState(_states.get(left));
+                        graph.RefreshRunnable(changed); // The runnable-status of the base graph does not apply to those
+                        state = graph.getState().Copy();
+                    }
+                    DcrState variantSuccessor = Execute(graph, state, activity);
+                    if (successor == NONE && variantSuccessor == null) continue; // Sink on both sides
+                    if (InStep(successor, variantSuccessor))
+                    {
+                        syncedTail = Sync(synced, syncedTail, successor, left, activity, null);
+                    }
+                    else
+                    {
+                        Enqueue(seen, queue, new Node(successor, variantSuccessor, null, left, activity));
+                    }
+                }
+                continue;
+            }
+
+            Node node = queue.poll();
+            PairsVisited++;
+            boolean leftAccepting = node.Left != NONE && _states.get(node.Left).IsFinalState();
+            boolean rightAccepting = node.Right != null && node.Right.IsFinalState();
+            if (leftAccepting != rightAccepting)
+            {
+                Counterexample = TraceTo(node);
+                LastResult = monitor.Result(_baseStatesExplored + PairsVisited, 0);
+                return false;
+            }
+            if (node.Right == null)
+            {
+                // Only the base graph goes on: They differ exactly when it can still accept
+                if (_leadsToAcceptance[node.Left])
+                {
+                    Counterexample = TraceTo(node);
+                    Counterexample.addAll(PathToAcceptance(node.Left));
+                    LastResult = monitor.Result(_baseStatesExplored + PairsVisited, 0);
+                    return false;
+                }
+                continue;
+            }
+
+            for (int activity = 0; activity < activityCount; activity++)
+            {
+                int successor = node.Left == NONE ? NONE : _successors[node.Left * activityCount + activity];
+                DcrState variantSuccessor = Execute(graph, node.Right, activity);
+                if (successor == NONE && variantSuccessor == null) continue; // Sink on both sides
+                if (InStep(successor, variantSuccessor))
+                {
+                    syncedTail = Sync(synced, syncedTail, successor, NONE, activity, node); // Back in step
+                }
+                else
+                {
+                    Enqueue(seen, queue, new Node(successor, variantSuccessor, node, NONE, activity));
+                }
+            }
+        }
+
+        LastResult = monitor.Result(_baseStatesExplored + PairsVisited, 0);
+        return true;
+    }
+
+    // The state reached by executing the activity in the variant's state - null if it cannot run there
+    private static DcrState Execute(ByteDcrGraph graph, DcrState variantState, int activity)
+    {
+        if (!variantState.CanRun(activity)) return null;
+        graph.SetState(variantState);
+        graph.ExecuteActivity(activity);
+        return graph.getState().Copy();
+    }
+
+    private boolean InStep(int successor, DcrState variantSuccessor)
+    {
+        return successor != NONE && variantSuccessor != null && _states.get(successor).HasSameMarking(variantSuccessor);
+    }
+
+    /// <summary>
+    /// Queues the state of the base graph as reached in the same marking, if it was not before - from the given state
+    /// in the same marking, or pair of diverged states.
+    /// </summary>
+    /// <returns>The new end of the queue</returns>
+    private int Sync(int[] synced, int syncedTail, int state, int from, int activity, Node pair)
+    {
+        if (_syncedFrom[state] != NONE) return syncedTail;
+        _syncedFrom[state] = pair == null ? from : RESYNCED;
+        _syncedBy[state] = activity;
+        if (pair != null) _resynced.put(state, pair);
+        synced[syncedTail] = state;
+        return syncedTail + 1;
+    }
+
+    private static void Enqueue(HashSet<Node> seen, ArrayDeque<Node> queue, Node node)
+    {
+        if (seen.add(node)) queue.add(node);
+    }
+
+    private boolean ExploreBase()
+    {
+        return ExploreBase(TraversalBudget.Unlimited().Start());
+    }
+
+    /// <returns>Whether the state graph of the base graph is explored - false if the budget ran out first</returns>
+    private boolean ExploreBase(TraversalBudget.Monitor monitor)
+    {
+        _baseStatesExplored = 0;
+        if (_explored == _base) return true;
+
+        return _states == null ? ExploreBaseFully(monitor) : PatchBase(monitor);
+    }
+
+    private boolean ExploreBaseFully(TraversalBudget.Monitor monitor)
+    {
+        int activityCount = _base.getState().getActivityCount();
+        ByteDcrGraph graph = _base.Copy();
+        ArrayList<DcrState> states = new ArrayList<>();
+        HashMap<DcrState, Integer> ids = new HashMap<>();
+        int[] successors = new int[16 * activityCount];
+
+        if (IdOf(states, ids, graph.getState(), monitor) == NONE) return false;
+        for (int i = 0; i < states.size(); i++)
+        {
+            _baseStatesExplored = states.size();
+            if (!monitor.Continue(_baseStatesExplored, 0)) return false;
+            if ((i + 1) * activityCount > successors.length)
+            {
+                successors = Arrays.copyOf(successors, successors.length * 2);
+            }
+            DcrState state = states.get(i);
+            for (int activity = 0; activity < activityCount; activity++)
+            {
+                int successor = NONE;
+                if (state.CanRun(activity))
+                {
+                    graph.SetState(state);
+                    graph.ExecuteActivity(activity);
+                    successor = IdOf(states, ids, graph.getState(), monitor);
+                    if (successor == NONE) return false;
+                }
+                successors[i * activityCount + activity] = successor;
+            }
+        }
+        _baseStatesExplored = states.size();
+
+        SetExplored(states, successors);
+        return true;
+    }
+
+    /// <summary>
+    /// Derives the state graph of the base graph from that of the graph explored before, which differs from it only in
+    /// the relations of some activities: In a marking of the explored graph, every other activity runs alike and leads
+    /// to the same marking, so its transition is taken over - only the changed activities are executed. States the
+    /// explored graph never reached in the same marking are explored as usual.
+    /// </summary>
+    private boolean PatchBase(TraversalBudget.Monitor monitor)
+    {
+        int activityCount = _base.getState().getActivityCount();
+        long[] changed = _explored.ComputeChangedActivities(_base);
+        ByteDcrGraph graph = _base.Copy();
+        ArrayList<DcrState> states = new ArrayList<>();
+        HashMap<DcrState, Integer> ids = new HashMap<>();
+        int[] successors = new int[16 * activityCount];
+
+        // Per state: The state of the explored graph in the same marking - NONE if not known to have one
+        int[] previousIds = new int[16];
+        Arrays.fill(previousIds, NONE);
+        // Per state of the explored graph: The state in the same marking - NONE if not reached yet
+        int[] patchedIds = new int[_states.size()];
+        Arrays.fill(patchedIds, NONE);
+
+        if (IdOf(states, ids, graph.getState(), monitor) == NONE) return false;
+        if (_states.get(0).HasSameMarking(states.get(0)))
+        {
+            previousIds[0] = 0;
+            patchedIds[0] = 0;
+        }
+        for (int i = 0; i < states.size(); i++)
+        {
+            _baseStatesExplored = states.size();
+            if (!monitor.Continue(_baseStatesExplored, 0)) return false;
+            if ((i + 1) * activityCount > successors.length)
+            {
+                successors = Arrays.copyOf(successors, successors.length * 2);
+            }
+            DcrState state = states.get(i);
+            int previous = previousIds[i];
+            for (int activity = 0; activity < activityCount; activity++)
+            {
+                int previousSuccessor = previous == NONE ? NONE : _successors[previous * activityCount + activity];
+                int successor = NONE;
+                if (previous != NONE && !HasBit(changed, activity))
+                {
+                    // Taken over
+                    if (previousSuccessor != NONE && patchedIds[previousSuccessor] == NONE)
+                    {
+                        graph.SetState(_states.get(previousSuccessor));
+                        graph.RefreshRunnable(changed); // The other activities are runnable alike
+                        patchedIds[previousSuccessor] = IdOf(states, ids, graph.getState(), monitor);
+                        if (patchedIds[previousSuccessor] == NONE) return false;
+                    }
+                    successor = previousSuccessor == NONE ? NONE : patchedIds[previousSuccessor];
+                }
+                else if (state.CanRun(activity))
+                {
+                    graph.SetState(state);
+                    graph.ExecuteActivity(activity);
+                    successor = IdOf(states, ids, graph.getState(), monitor);
+                    if (successor == NONE) return false;
+                    if (previousSuccessor != NONE && patchedIds[previousSuccessor] == NONE
+                            && _states.get(previousSuccessor).HasSameMarking(graph.getState()))
+                    {
+                        patchedIds[previousSuccessor] = successor;
+                    }
+                }
+                successors[i * activityCount + activity] = successor;
+
+                if (successor == NONE) continue;
+                if (successor >= previousIds.length)
+                {
+                    int from = previousIds.length;
+                    previousIds = Arrays.copyOf(previousIds, Math.max(successor + 1, from * 2));
+                    Arrays.fill(previousIds, from, previousIds.length, NONE);
+                }
+                if (previousSuccessor != NONE && patchedIds[previousSuccessor] == successor)
+                {
+                    previousIds[successor] = previousSuccessor;
+                }
+            }
+        }
+        _baseStatesExplored = states.size();
+
+        SetExplored(states, successors);
+        return true;
+    }
+
+    // The id of the state - adding a copy of it, if not seen before and the budget allows another state (NONE if not)
+    private int IdOf(ArrayList<DcrState> states, HashMap<DcrState, Integer> ids, DcrState state, TraversalBudget.Monitor monitor)
+    {
+        Integer id = ids.get(state);
+        if (id == null)
+        {
+            _baseStatesExplored = states.size();
+            if (!monitor.Continue(_baseStatesExplored, 0)) return NONE;
+            DcrState reached = state.Copy();
+            id = states.size();
+            states.add(reached);
+            ids.put(reached, id);
+        }
+        return id;
+    }
+
+    private void SetExplored(ArrayList<DcrState> states, int[] successors)
+    {
+        int activityCount = _base.getState().getActivityCount();
+        _explored = _base;
+        _states = states;
+        _successors = successors;
+        _leadsToAcceptance = ComputeLeadsToAcceptance(states, successors, activityCount);
+    }
+
+    // Backwards from the accepting states over the reversed transitions
+    private static boolean[] ComputeLeadsToAcceptance(ArrayList<DcrState> states, int[] successors, int activityCount)
+    {
+        int stateCount = states.size();
+        int[] predecessorStart = new int[stateCount + 1];
+        for (int i = 0; i < stateCount * activityCount; i++)
+        {
+            if (successors[i] != NONE) predecessorStart[successors[i] + 1]++;
+        }
+        for (int i = 0; i < stateCount; i++)
+        {
+            predecessorStart[i + 1] += predecessorStart[i];
+        }
+        int[] predecessors = new int[predecessorStart[stateCount]];
+        int[] fill = Arrays.copyOf(predecessorStart, stateCount);
+        for (int i = 0; i < stateCount * activityCount; i++)
+        {
+            if (successors[i] != NONE) predecessors[fill[successors[i]]++] = i / activityCount;
+        }
+
+        boolean[] res = new boolean[stateCount];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < stateCount; i++)
+        {
+            if (states.get(i).IsFinalState())
+            {
+                res[i] = true;
+                queue.add(i);
+            }
+        }
+        while (!queue.isEmpty())
+        {
+            int state = queue.poll();
+            for (int p = predecessorStart[state]; p < predecessorStart[state + 1]; p++)
+            {
+                if (res[predecessors[p]]) continue;
+                res[predecessors[p]] = true;
+                queue.add(predecessors[p]);
+            }
+        }
+        return res;
+    }
+
+    // A shortest trace from the given state of the base graph to an accepting one
+    private ComparableList<Integer> PathToAcceptance(int from)
+    {
+        int activityCount = _base.getState().getActivityCount();
+        int[] previous = new int[_states.size()];
+        int[] activities = new int[_states.size()];
+        Arrays.fill(previous, -2);
+        previous[from] = -1;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(from);
+        while (!queue.isEmpty())
+        {
+            int state = queue.poll();
+            if (_states.get(state).IsFinalState())
+            {
+                ComparableList<Integer> res = new ComparableList<>();
+                for (int s = state; previous[s] != -1; s = previous[s])
+                {
+                    res.add(activities[s]);
+                }
+                Collections.reverse(res);
+                return res;
+            }
+            for (int activity = 0; activity < activityCount; activity++)
+            {
+                int successor = _successors[state * activityCount + activity];
+                if (successor == NONE || previous[successor] != -2) continue;
+                previous[successor] = state;
+                activities[successor] = activity;
+                queue.add(successor);
+            }
+        }
+        return new ComparableList<>(); // Unreachable when called for a state leading to acceptance
+    }
+
+    private static boolean HasBit(long[] row, int idx)
+    {
+        return (row[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    // The trace of the last comparison to the pair - through the pairs before it and the states in the same marking
+    private ComparableList<Integer> TraceTo(Node node)
+    {
+        ComparableList<Integer> res = new ComparableList<>();
+        int state = NONE;
+        while (true)
+        {
+            if (node != null)
+            {
+                res.add(node.Activity);
+                if (node.Previous != null)
+                {
+                    node = node.Previous;
+                    continue;
+                }
+                state = node.From;
+                node = null;
+            }
+            if (_syncedFrom[state] == START) break;
+            res.add(_syncedBy[state]);
+            if (_syncedFrom[state] == RESYNCED) node = _resynced.get(state);
+            else state = _syncedFrom[state];
+        }
+        Collections.reverse(res);
+        return res;
+    }
+}
@@ -0,0 +1,430 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.utils.ComparableList;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+/// <summary>
+/// Decides whether graphs accept the same language as a reference graph by the Hopcroft-Karp algorithm: The labelled
+/// transition systems of both graphs (states as reached by executing activities) are explored on the fly as a product,
+/// merging the pairs of states found to be equivalent in a union-find structure. A pair with exactly one accepting
+/// state is a counterexample. The work is bounded by the amount of reachable states rather than the amount of traces.
+/// With a parallelism above 1, the product is searched by ForkJoinPool workers instead - see ParallelTraceComparison.
+/// Like CompareTraces, activities are labelled by their index, so the graphs must share their index mappings.
+/// </summary>
+public class LanguageEquivalenceChecker
+{
+    // Node of the implicit, non-accepting state reached (in either graph) by executing an activity that is not runnable
+    private static final int SINK = 0;
+
+    private final ByteDcrGraph _reference;
+    private final SeenStateStore.Factory _storeFactory;
+    private final int _parallelism;
+    private TraversalBudget _budget = TraversalBudget.Unlimited();
+    private boolean _partialOrderReduction;
+
+    private int[] _parent = new int[64];
+    private int _nodeCount;
+    private long _pairsVisited;
+
+    private ComparableList<Integer> Counterexample;
+    /// <summary>
+    /// A trace accepted by only one of the graphs in the last comparison - null if they were equivalent. It need not be
+    /// a shortest one: Pairs whose states are merged already are skipped, so the first pair found to differ may lie
+    /// behind a longer trace than another difference. Comparing in parallel, it is the shortest one - and the
+    /// lexicographically smallest of those - so it does not depend on the scheduling of the workers.
+    /// </summary>
+    public ComparableList<Integer> getCounterexample() { return Counterexample; }
+
+    public long getPairsVisited() { return _pairsVisited; }
+
+    private TraversalResult LastResult;
+    /// <summary>
+    /// Whether the last comparison completed, or was truncated by the budget (counting pairs as states) - in which
+    /// case it was reported as not equivalent, without a counterexample.
+    /// </summary>
+    public TraversalResult getLastResult() { return LastResult; }
+
+    public void setBudget(TraversalBudget budget)
+    {
+        _budget = budget;
+    }
+
+    /// <summary>
+    /// Whether comparisons search the product with sleep sets (as UniqueStateFinder.setPartialOrderReduction does the
+    /// state-space) rather than by Hopcroft-Karp: Executions of activities that are independent in both graphs (see
+    /// ByteDcrGraph.ComputeIndependence) and only lead to pairs covered by another interleaving are skipped, but every
+    /// reachable pair is still visited. The languages differ exactly when a reachable pair has exactly one accepting
+    /// state, so the answer stays exact - only the interleavings of loosely coupled activities are no longer executed
+    /// one by one. The sleep set of each pair is kept in its entry in a store of the factory. Parallel comparisons are
+    /// never reduced.
+    /// </summary>
+    public void setPartialOrderReduction(boolean partialOrderReduction)
+    {
+        _partialOrderReduction = partialOrderReduction;
+    }
+
+    public LanguageEquivalenceChecker(ByteDcrGraph reference)
+    {
+        this(reference, HeapSeenStateStore::new);
+    }
+
+    /// <param name="storeFactory">Creates the stores assigning union-find nodes to the states of each graph.</param>
+    public LanguageEquivalenceChecker(ByteDcrGraph reference, SeenStateStore.Factory storeFactory)
+    {
+        this(reference, storeFactory, 1);
+    }
+
+    /// <param name="parallelism">The amount of worker threads searching the product - 1 compares on the calling thread.
+    /// Either way, the answers are the same.</param>
+    public LanguageEquivalenceChecker(ByteDcrGraph reference, SeenStateStore.Factory storeFactory, int parallelism)
+    {
+        _reference = reference.Copy();
+        _storeFactory = storeFactory;
+        _parallelism = Math.max(1, parallelism);
+    }
+
+    // A pair of states reached by the same trace in both graphs - null for the sink
+    static class StatePair
+    {
+        final DcrState Left;
+        final DcrState Right;
+        final StatePair Previous;
+        final int Activity;
+
+        StatePair(DcrState left, DcrState right, StatePair previous, int activity)
+        {
+            Left = left;
+            Right = right;
+            Previous = previous;
+            Activity = activity;
+        }
+    }
+
+    public boolean IsEquivalent(ByteDcrGraph graph)
+    {
+        Counterexample = null;
+        _nodeCount = 1; // The sink
+        _parent[SINK] = SINK;
+        _pairsVisited = 0;
+        TraversalBudget.Monitor monitor = _budget.Start();
+
+        ByteDcrGraph left = _reference.Copy();
+        ByteDcrGraph right = graph.Copy();
+        int activityCount = left.getState().getActivityCount();
+        if (_parallelism > 1)
+        {
+            ParallelTraceComparison comparison = new ParallelTraceComparison(left, right, _storeFactory, monitor);
+            Counterexample = comparison.FindLanguageChange(_parallelism);
+            _pairsVisited = comparison.getPairsVisited();
+            LastResult = monitor.Result(_pairsVisited, 0);
+            return Counterexample == null && !LastResult.isTruncated();
+        }
+        if (_partialOrderReduction)
+        {
+            return IsEquivalentWithSleepSets(left, right, activityCount, monitor);
+        }
+
+        try (SeenStateStore leftNodes = _storeFactory.Create(activityCount, false);
+             SeenStateStore rightNodes = _storeFactory.Create(activityCount, false))
+        {
+            // Breadth-first, which keeps counterexamples short (though not necessarily shortest)
+            ArrayDeque<StatePair> queue = new ArrayDeque<>();
+            queue.add(new StatePair(left.getState().Copy(), right.getState().Copy(), null, -1));
+
+            while (!queue.isEmpty())
+            {
+                if (!monitor.Continue(_pairsVisited, 0))
+                {
+                    LastResult = monitor.Result(_pairsVisited, 0);
+                    return false; // Out of budget: Undecided
+                }
+                StatePair pair = queue.poll();
+                int leftClass = Find(NodeOf(leftNodes, pair.Left));
+                int rightClass = Find(NodeOf(rightNodes, pair.Right));
+                if (leftClass == rightClass) continue; // Already known (or assumed) to be equivalent
+                _pairsVisited++;
+
+                if (IsAccepting(pair.Left) != IsAccepting(pair.Right))
+                {
+                    Counterexample = TraceTo(pair);
+                    LastResult = monitor.Result(_pairsVisited, 0);
+                    return false;
+                }
+                _parent[leftClass] = rightClass;
+
+                for (int activity = 0; activity < activityCount; activity++)
+                {
+                    boolean leftRuns = pair.Left != null && pair.Left.CanRun(activity);
+                    boolean rightRuns = pair.Right != null && pair.Right.CanRun(activity);
+                    if (!leftRuns && !rightRuns) continue; // Sink on both sides
+
+                    queue.add(new StatePair(
+                            leftRuns ? Successor(left, pair.Left, activity) : null,
+                            rightRuns ? Successor(right, pair.Right, activity) : null,
+                            pair, activity));
+                }
+            }
+        }
+        LastResult = monitor.Result(_pairsVisited, 0);
+        return true;
+    }
+
+    // A pair of states on the depth-first stack, along with its sleep set and the activities left to execute from it
+    private static class SleepFrame
+    {
+        final DcrState Left;
+        final DcrState Right;
+        final int Activity; // Executed to get here - -1 for the initial pair
+        final long[] Sleep;
+        final long[] Todo;
+
+        SleepFrame(DcrState left, DcrState right, int activity, long[] sleep, long[] todo)
+        {
+            Left = left;
+            Right = right;
+            Activity = activity;
+            Sleep = sleep;
+            Todo = todo;
+        }
+
+        // The next activity to execute - -1 if there is none left
+        int NextActivity()
+        {
+            for (int w = 0; w < Todo.length; w++)
+            {
+                if (Todo[w] == 0) continue;
+                int bit = Long.numberOfTrailingZeros(Todo[w]);
+                Todo[w] &= ~(1L << bit);
+                return w * 64 + bit;
+            }
+            return -1;
+        }
+    }
+
+    /// <summary>
+    /// Depth-first search of the product with sleep sets and state matching, like
+    /// UniqueStateFinder.FindUniqueStatesWithSleepSets - stopping at the first pair with exactly one accepting state.
+    /// </summary>
+    private boolean IsEquivalentWithSleepSets(ByteDcrGraph left, ByteDcrGraph right, int activityCount, TraversalBudget.Monitor monitor)
+    {
+        int width = DcrState.WidthFor(activityCount);
+        long[][] independence = left.ComputeIndependence();
+        long[][] rightIndependence = right.ComputeIndependence();
+        for (int activity = 0; activity < activityCount; activity++)
+        {
+            for (int w = 0; w < width; w++)
+            {
+                independence[activity][w] &= rightIndependence[activity][w];
+            }
+            // Unlike in a single graph, an activity may run in one state of a pair only, so executing its
+            // condition-source in the other graph enables it there: Such pairs of activities do not commute
+            for (int other = 0; other < activityCount; other++)
+            {
+                if (left.HasCondition(activity, other) || left.HasCondition(other, activity)
+                        || right.HasCondition(activity, other) || right.HasCondition(other, activity))
+                {
+                    independence[activity][other >>> 6] &= ~(1L << other);
+                }
+            }
+        }
+
+        DcrState leftStart = left.getState().Copy();
+        DcrState rightStart = right.getState().Copy();
+        _pairsVisited = 1;
+        if (IsAccepting(leftStart) != IsAccepting(rightStart))
+        {
+            Counterexample = new ComparableList<>(); // The empty trace
+            LastResult = monitor.Result(_pairsVisited, 0);
+            return false;
+        }
+
+        // Each pair's entry holds the sleep set it was explored with
+        try (SeenStateStore sleepSets = _storeFactory.Create(PairActivityCount(activityCount), width, false))
+        {
+            sleepSets.PutIfAbsent(PairKey(leftStart, rightStart, activityCount), 0);
+            ArrayDeque<SleepFrame> stack = new ArrayDeque<>();
+            stack.push(new SleepFrame(leftStart, rightStart, -1, new long[width], Runnable(leftStart, rightStart, activityCount)));
+
+            while (!stack.isEmpty())
+            {
+                if (!monitor.Continue(_pairsVisited, 0))
+                {
+                    LastResult = monitor.Result(_pairsVisited, 0);
+                    return false; // Out of budget: Undecided
+                }
+                SleepFrame frame = stack.peek();
+                int activity = frame.NextActivity();
+                if (activity < 0)
+                {
+                    stack.pop();
+                    continue;
+                }
+
+                DcrState nextLeft = frame.Left != null && frame.Left.CanRun(activity) ? Successor(left, frame.Left, activity) : null;
+                DcrState nextRight = frame.Right != null && frame.Right.CanRun(activity) ? Successor(right, frame.Right, activity) : null;
+
+                // The activities asleep here, which are independent of the one executed, stay asleep in the next pair
+                long[] sleep = new long[width];
+                for (int w = 0; w < width; w++)
+                {
+                    sleep[w] = frame.Sleep[w] & independence[activity][w];
+                }
+                // ... and the executed activity is covered for the remaining siblings
+                frame.Sleep[activity >>> 6] |= 1L << activity;
+
+                DcrState key = PairKey(nextLeft, nextRight, activityCount);
+                long[] storedSleep = new long[width];
+                long[] todo = Runnable(nextLeft, nextRight, activityCount);
+                if (sleepSets.Get(key, storedSleep) == SeenStateStore.ABSENT)
+                {
+                    _pairsVisited++;
+                    if (IsAccepting(nextLeft) != IsAccepting(nextRight))
+                    {
+                        Counterexample = TraceTo(stack, activity);
+                        LastResult = monitor.Result(_pairsVisited, 0);
+                        return false;
+                    }
+                    sleepSets.PutIfAbsent(key, 0, sleep);
+                    for (int w = 0; w < width; w++)
+                    {
+                        todo[w] &= ~sleep[w];
+                    }
+                    stack.push(new SleepFrame(nextLeft, nextRight, activity, sleep, todo));
+                    continue;
+                }
+
+                // Seen before: Only the activities asleep then, but not now, are left to explore
+                boolean anyAwoken = false;
+                for (int w = 0; w < width; w++)
+                {
+                    todo[w] &= storedSleep[w] & ~sleep[w];
+                    anyAwoken |= todo[w] != 0;
+                    storedSleep[w] &= sleep[w];
+                }
+                if (anyAwoken)
+                {
+                    sleepSets.Put(key, 0, storedSleep);
+                    stack.push(new SleepFrame(nextLeft, nextRight, activity, storedSleep, todo));
+                }
+            }
+        }
+        LastResult = monitor.Result(_pairsVisited, 0);
+        return true;
+    }
+
+    // The activities runnable in either state of the pair
+    private static long[] Runnable(DcrState left, DcrState right, int activityCount)
+    {
+        long[] runnable = new long[DcrState.WidthFor(activityCount)];
+        for (int activity = 0; activity < activityCount; activity++)
+        {
+            if (left != null && left.CanRun(activity) || right != null && right.CanRun(activity))
+            {
+                runnable[activity >>> 6] |= 1L << activity;
+            }
+        }
+        return runnable;
+    }
+
+    private static ComparableList<Integer> TraceTo(ArrayDeque<SleepFrame> stack, int activity)
+    {
+        ComparableList<Integer> res = new ComparableList<>();
+        for (Iterator<SleepFrame> frames = stack.descendingIterator(); frames.hasNext(); )
+        {
+            SleepFrame frame = frames.next();
+            if (frame.Activity >= 0) res.add(frame.Activity);
+        }
+        res.add(activity);
+        return res;
+    }
+
+    static boolean IsAccepting(DcrState state)
+    {
+        return state != null && state.IsFinalState();
+    }
+
+    static DcrState Successor(ByteDcrGraph graph, DcrState state, int activity)
+    {
+        graph.SetState(state);
+        graph.ExecuteActivity(activity);
+        return graph.getState().Copy();
+    }
+
+    // Both states side by side, followed by one marker-activity per graph which is pending when the graph is in the sink
+    static int PairActivityCount(int activityCount)
+    {
+        return 2 * activityCount + 2;
+    }
+
+    /// <summary>
+    /// The pair of states of two graphs over the same activities as a single state - null for a graph in the sink.
+    /// </summary>
+    static DcrState PairKey(DcrState left, DcrState right, int activityCount)
+    {
+        DcrState key = new DcrState(PairActivityCount(activityCount));
+        CopyInto(key, left, 0, activityCount);
+        CopyInto(key, right, activityCount + 1, activityCount);
+        return key;
+    }
+
+    private static void CopyInto(DcrState key, DcrState state, int offset, int activityCount)
+    {
+        if (state == null)
+        {
+            key.Set(DcrState.PENDING, offset + activityCount, true);
+            return;
+        }
+        for (int i = 0; i < activityCount; i++)
+        {
+            for (int plane = DcrState.PENDING; plane <= DcrState.RUNNABLE; plane++)
+            {
+                if (state.Get(plane, i)) key.Set(plane, offset + i, true);
+            }
+        }
+    }
+
+    private int NodeOf(SeenStateStore nodes, DcrState state)
+    {
+        if (state == null) return SINK;
+
+        int node = nodes.Get(state);
+        if (node == SeenStateStore.ABSENT)
+        {
+            if (_nodeCount == _parent.length)
+            {
+                _parent = Arrays.copyOf(_parent, _parent.length * 2);
+            }
+            node = _nodeCount++;
+            _parent[node] = node;
+            nodes.Put(state, node);
+        }
+        return node;
+    }
+
+    private int Find(int node)
+    {
+        while (_parent[node] != node)
+        {
+            _parent[node] = _parent[_parent[node]]; // Path halving
+            node = _parent[node];
+        }
+        return node;
+    }
+
+    static ComparableList<Integer> TraceTo(StatePair pair)
+    {
+        ComparableList<Integer> res = new ComparableList<>();
+        for (StatePair p = pair; p.Previous != null; p = p.Previous)
+        {
+            res.add(p.Activity);
+        }
+        Collections.reverse(res);
+        return res;
+    }
+}
@@ -0,0 +1,298 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.DcrState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.function.ObjIntConsumer;
+
+/// <summary>
+/// Seen-state store keeping the states outside of the heap, as fixed-width slots of packed state-words in open-addressing
+/// (linear probing) hash tables. The store is split into segments by the top bits of the state-hash, each with its own
+/// lock and table, so it may be used concurrently and each table stays below the 2GB limit of a single buffer.
+/// Tables are allocated as direct buffers - or, when given a spill directory, as memory-mapped files once a table
+/// outgrows SpillSegmentBytes, leaving it to the OS to page states out to disk when the state-space exceeds memory.
+/// The payload-words of a state sit in its slot, between the header and the state-words.
+/// </summary>
+public class OffHeapSeenStateStore implements SeenStateStore
+{
+    // Slot header: occupied-bit, 31 bits of the state-hash and the 32-bit value, followed by the payload-words and the
+    // packed state-words
+    private static final long OCCUPIED = 1L << 63;
+    private static final int HeaderBytes = Long.BYTES;
+
+    private static final int SegmentBits = 6;
+    private static final int InitialSegmentCapacity = 16; // slots - always a power of 2
+    private static final int MaxLoadPercent = 70;
+    private static final int SpillSegmentBytes = 1 << 20;
+
+    private final int _activityCount;
+    private final int _payloadWords;
+    private final int _stateOffset; // Of the state-words in a slot
+    private final int _slotBytes;
+    private final File _spillDirectory;
+    private final Segment[] _segments = new Segment[1 << SegmentBits];
+
+    public OffHeapSeenStateStore(int activityCount)
+    {
+        this(activityCount, 0, null);
+    }
+
+    /// <param name="spillDirectory">Directory for the memory-mapped files of large tables - null to use direct buffers only.</param>
+    public OffHeapSeenStateStore(int activityCount, File spillDirectory)
+    {
+        this(activityCount, 0, spillDirectory);
+    }
+
+    /// <param name="payloadWords">The amount of words stored along with each state.</param>
+    /// <param name="spillDirectory">Directory for the memory-mapped files of large tables - null to use direct buffers only.</param>
+    public OffHeapSeenStateStore(int activityCount, int payloadWords, File spillDirectory)
+    {
+        _activityCount = activityCount;
+        _payloadWords = payloadWords;
+        _stateOffset = HeaderBytes + payloadWords * Long.BYTES;
+        _slotBytes = _stateOffset + DcrState.ByteSizeFor(activityCount);
+        _spillDirectory = spillDirectory;
+        for (int i = 0; i < _segments.length; i++)
+        {
+            _segments[i] = new Segment();
+        }
+    }
+
+    public static SeenStateStore.Factory InMemory()
+    {
+        return (activityCount, payloadWords, concurrent) -> new OffHeapSeenStateStore(activityCount, payloadWords, null);
+    }
+
+    public static SeenStateStore.Factory SpillingTo(File spillDirectory)
+    {
+        return (activityCount, payloadWords, concurrent) -> new OffHeapSeenStateStore(activityCount, payloadWords, spillDirectory);
+    }
+
+    @Override
+    public int Get(DcrState state, long[] payload)
+    {
+        long hash = state.Hash64();
+        Segment segment = SegmentFor(hash);
+        synchronized (segment)
+        {
+            int slot = segment.Find(state, Fragment(hash));
+            long header = segment.Table.getLong(slot);
+            if ((header & OCCUPIED) == 0) return ABSENT;
+            for (int w = 0; payload != null && w < _payloadWords; w++)
+            {
+                payload[w] = segment.Table.getLong(slot + HeaderBytes + w * Long.BYTES);
+            }
+            return (int) header;
+        }
+    }
+
+    @Override
+    public int Put(DcrState state, int value, long[] payload)
+    {
+        return Store(state, value, payload, true);
+    }
+
+    @Override
+    public boolean PutIfAbsent(DcrState state, int value, long[] payload)
+    {
+        return Store(state, value, payload, false) == ABSENT;
+    }
+
+    private int Store(DcrState state, int value, long[] payload, boolean overwrite)
+    {
+        long hash = state.Hash64();
+        int fragment = Fragment(hash);
+        Segment segment = SegmentFor(hash);
+        synchronized (segment)
+        {
+            int slot = segment.Find(state, fragment);
+            long header = segment.Table.getLong(slot);
+            long newHeader = OCCUPIED | ((long) fragment << 32) | (value & 0xFFFFFFFFL);
+            if ((header & OCCUPIED) != 0)
+            {
+                if (overwrite)
+                {
+                    segment.Table.putLong(slot, newHeader);
+                    WritePayload(segment.Table, slot, payload);
+                }
+                return (int) header;
+            }
+
+            // Empty slots are all zeroes, as states are never removed
+            state.WriteTo(segment.Table, slot + _stateOffset);
+            WritePayload(segment.Table, slot, payload);
+            segment.Table.putLong(slot, newHeader);
+            if (++segment.Size * 100L > segment.Capacity * (long) MaxLoadPercent)
+            {
+                segment.Grow();
+            }
+            return ABSENT;
+        }
+    }
+
+    private void WritePayload(ByteBuffer table, int slot, long[] payload)
+    {
+        for (int w = 0; payload != null && w < _payloadWords; w++)
+        {
+            table.putLong(slot + HeaderBytes + w * Long.BYTES, payload[w]);
+        }
+    }
+
+    @Override
+    public long getSize()
+    {
+        long size = 0;
+        for (Segment segment : _segments)
+        {
+            synchronized (segment)
+            {
+                size += segment.Size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void ForEach(ObjIntConsumer<DcrState> action)
+    {
+        for (Segment segment : _segments)
+        {
+            synchronized (segment)
+            {
+                for (int slot = 0; slot < segment.Capacity * _slotBytes; slot += _slotBytes)
+                {
+                    long header = segment.Table.getLong(slot);
+                    if ((header & OCCUPIED) != 0)
+                    {
+                        action.accept(DcrState.ReadFrom(segment.Table, slot + _stateOffset, _activityCount), (int) header);
+                    }
+                }
+            }
+        }
+    }
+
+    /// <summary>
+    /// Drops the tables and deletes their files. NOTE: Java offers no way to free a direct or mapped buffer explicitly,
+    /// so their memory (and, on some platforms, the files) is only released once the buffers are garbage collected.
+    /// </summary>
+    @Override
+    public void close()
+    {
+        for (Segment segment : _segments)
+        {
+            synchronized (segment)
+            {
+                segment.Release();
+                segment.Table = null;
+                segment.Capacity = 0;
+                segment.Size = 0;
+            }
+        }
+    }
+
+    private Segment SegmentFor(long hash)
+    {
+        return _segments[(int) (hash >>> (64 - SegmentBits))];
+    }
+
+    private static int Fragment(long hash)
+    {
+        return (int) hash & Integer.MAX_VALUE;
+    }
+
+    private class Segment
+    {
+        ByteBuffer Table;
+        int Capacity;
+        int Size;
+        private File _file;
+
+        Segment()
+        {
+            Allocate(InitialSegmentCapacity);
+        }
+
+        /// <returns>The offset of the slot holding the state - or of the empty slot where it belongs</returns>
+        int Find(DcrState state, int fragment)
+        {
+            int mask = Capacity - 1;
+            for (int i = fragment & mask; ; i = (i + 1) & mask)
+            {
+                int slot = i * _slotBytes;
+                long header = Table.getLong(slot);
+                if ((header & OCCUPIED) == 0) return slot;
+                if ((int) (header >>> 32) == (fragment | Integer.MIN_VALUE) && state.EqualsAt(Table, slot + _stateOffset)) return slot;
+            }
+        }
+
+        void Grow()
+        {
+            if ((long) Capacity * 2 * _slotBytes > Integer.MAX_VALUE)
+            {
+                throw new IllegalStateException("Seen-state store segment cannot grow beyond " + Capacity + " states");
+            }
+            ByteBuffer oldTable = Table;
+            int oldCapacity = Capacity;
+            File oldFile = _file;
+            Allocate(oldCapacity * 2);
+
+            // Re-insert by the hash-fragment kept in the header - no need to re-hash the states
+            int mask = Capacity - 1;
+            for (int oldSlot = 0; oldSlot < oldCapacity * _slotBytes; oldSlot += _slotBytes)
+            {
+                long header = oldTable.getLong(oldSlot);
+                if ((header & OCCUPIED) == 0) continue;
+
+                int i = (int) (header >>> 32) & mask;
+                while ((Table.getLong(i * _slotBytes) & OCCUPIED) != 0)
+                {
+                    i = (i + 1) & mask;
+                }
+                for (int b = 0; b < _slotBytes; b += Long.BYTES)
+                {
+                    Table.putLong(i * _slotBytes + b, oldTable.getLong(oldSlot + b));
+                }
+            }
+            if (oldFile != null && !oldFile.delete()) oldFile.deleteOnExit();
+        }
+
+        private void Allocate(int capacity)
+        {
+            int bytes = capacity * _slotBytes;
+            Capacity = capacity;
+            _file = null;
+            if (_spillDirectory == null || bytes < SpillSegmentBytes)
+            {
+                Table = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+                return;
+            }
+
+            try
+            {
+                _file = File.createTempFile("dcr-states", ".bin", _spillDirectory);
+                try (RandomAccessFile file = new RandomAccessFile(_file, "rw"))
+                {
+                    file.setLength(bytes);
+                    // The mapping stays valid after the file is closed
+                    Table = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("Could not map seen-state table in " + _spillDirectory, e);
+            }
+        }
+
+        void Release()
+        {
+            if (_file != null && !_file.delete()) _file.deleteOnExit();
+            _file = null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.traversal.LanguageEquivalenceChecker.StatePair;
+import com.dcr.utils.ComparableList;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/// <summary>
+/// Parallel counterpart of LanguageEquivalenceChecker.IsEquivalent: Searches the product of the transition systems of
+/// the reference and the compared graph - pairs of states reached by the same trace in both, where an activity that is
+/// not runnable in one graph leads it into a non-accepting sink - for a pair with exactly one accepting state. Such a
+/// pair exists exactly when the languages differ, and the trace reaching it is accepted by only one of the graphs.
+/// The product is searched breadth-first, one level at a time: ForkJoinPool workers execute the activities of the pairs
+/// of a level, after which the pairs reached are claimed on the calling thread in the order of the level and of the
+/// activities. So every pair is reached by the trace a single thread would reach it by, whatever the scheduling, and
+/// the counterexample is the shortest trace accepted by only one of the graphs - the lexicographically smallest of those.
+/// </summary>
+class ParallelTraceComparison
+{
+    // Pairs of a level expanded by a single task
+    private static final int PairsPerTask = 32;
+
+    private final ByteDcrGraph _left;
+    private final ByteDcrGraph _right;
+    private final int _activityCount;
+    private final SeenStateStore.Factory _storeFactory;
+    private final TraversalBudget.Monitor _monitor;
+    private final ThreadLocal<ByteDcrGraph[]> _graphs; // Per worker: Copies of both graphs to execute activities in
+
+    private long _pairsVisited;
+    long getPairsVisited() { return _pairsVisited; }
+
+    /// <param name="monitor">The budget of the comparison, counting pairs as states.</param>
+    ParallelTraceComparison(ByteDcrGraph left, ByteDcrGraph right, SeenStateStore.Factory storeFactory, TraversalBudget.Monitor monitor)
+    {
+        _left = left;
+        _right = right;
+        _activityCount = left.getState().getActivityCount();
+        _storeFactory = storeFactory;
+        _monitor = monitor;
+        _graphs = ThreadLocal.withInitial(() -> new ByteDcrGraph[] { _left.Copy(), _right.Copy() });
+    }
+
+    /// <returns>The shortest, and then lexicographically smallest, trace accepted by only one of the graphs - or null
+    /// if there is none (which is only conclusive if the budget did not run out)</returns>
+    ComparableList<Integer> FindLanguageChange(int parallelism)
+    {
+        _pairsVisited = 0;
+        if (!_monitor.Continue(_pairsVisited, 0)) return null; // Out of budget
+        _pairsVisited = 1;
+        StatePair initial = new StatePair(_left.getState().Copy(), _right.getState().Copy(), null, -1);
+        if (LanguageEquivalenceChecker.IsAccepting(initial.Left) != LanguageEquivalenceChecker.IsAccepting(initial.Right))
+        {
+            return new ComparableList<>(); // The empty trace
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (SeenStateStore seenPairs = _storeFactory.Create(LanguageEquivalenceChecker.PairActivityCount(_activityCount), false))
+        {
+            seenPairs.Put(LanguageEquivalenceChecker.PairKey(initial.Left, initial.Right, _activityCount), 0);
+            ArrayList<StatePair> level = new ArrayList<>();
+            level.add(initial);
+
+            while (!level.isEmpty())
+            {
+                StatePair[][] successors = new StatePair[level.size()][];
+                DcrState[][] keys = new DcrState[level.size()][];
+                _monitor.Invoke(pool, new ExpandTask(level, successors, keys, 0, level.size()));
+                if (_monitor.IsStopped()) return null; // Cancelled
+
+                ArrayList<StatePair> nextLevel = new ArrayList<>();
+                for (int i = 0; i < level.size(); i++)
+                {
+                    for (int activity = 0; activity < _activityCount; activity++)
+                    {
+                        StatePair next = successors[i][activity];
+                        if (next == null) continue; // Sink on both sides
+                        if (!_monitor.Continue(_pairsVisited, 0)) return null; // Out of budget
+                        if (!seenPairs.PutIfAbsent(keys[i][activity], 0)) continue;
+                        _pairsVisited++;
+
+                        if (LanguageEquivalenceChecker.IsAccepting(next.Left) != LanguageEquivalenceChecker.IsAccepting(next.Right))
+                        {
+                            return LanguageEquivalenceChecker.TraceTo(next);
+                        }
+                        nextLevel.add(next);
+                    }
+                }
+                level = nextLevel;
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        return null;
+    }
+
+    // Executes every activity in the pairs of a range of the level, splitting the range over several tasks
+    private class ExpandTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<StatePair> _level;
+        private final StatePair[][] _successors; // Per pair and activity - null for the sink on both sides
+        private final DcrState[][] _keys; // Of those successors, see LanguageEquivalenceChecker.PairKey
+        private final int _from;
+        private final int _to;
+
+        ExpandTask(ArrayList<StatePair> level, StatePair[][] successors, DcrState[][] keys, int from, int to)
+        {
+            _level = level;
+            _successors = successors;
+            _keys = keys;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (_to - _from > PairsPerTask)
+            {
+                int middle = (_from + _to) >>> 1;
+                invokeAll(new ExpandTask(_level, _successors, _keys, _from, middle), new ExpandTask(_level, _successors, _keys, middle, _to));
+                return;
+            }
+
+            ByteDcrGraph[] graphs = _graphs.get();
+            for (int i = _from; i < _to; i++)
+            {
+                if (_monitor.IsStopped()) return;
+                StatePair pair = _level.get(i);
+                _successors[i] = new StatePair[_activityCount];
+                _keys[i] = new DcrState[_activityCount];
+                for (int activity = 0; activity < _activityCount; activity++)
+                {
+                    boolean leftRuns = pair.Left != null && pair.Left.CanRun(activity);
+                    boolean rightRuns = pair.Right != null && pair.Right.CanRun(activity);
+                    if (!leftRuns && !rightRuns) continue;
+
+                    StatePair next = new StatePair(
+                            leftRuns ? LanguageEquivalenceChecker.Successor(graphs[0], pair.Left, activity) : null,
+                            rightRuns ? LanguageEquivalenceChecker.Successor(graphs[1], pair.Right, activity) : null,
+                            pair, activity);
+                    _successors[i][activity] = next;
+                    _keys[i][activity] = LanguageEquivalenceChecker.PairKey(next.Left, next.Right, _activityCount);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.DcrState;
+
+import java.util.function.ObjIntConsumer;
+
+/// <summary>
+/// The set of states seen by a traversal, each along with a small non-negative value (whether it leads to an accepting
+/// trace, the amount of runnable activities in it, ...) and, if the store was created with any payload-words, with a
+/// fixed amount of words of further data (such as the sleep set it was explored with) kept in the same entry.
+/// Implementations decide where the states live - see HeapSeenStateStore and OffHeapSeenStateStore.
+/// </summary>
+public interface SeenStateStore extends AutoCloseable
+{
+    // Returned for states that are not in the store
+    int ABSENT = -1;
+
+    /// <summary>
+    /// Creates the store used for a single traversal of a graph over the given amount of activities.
+    /// </summary>
+    interface Factory
+    {
+        /// <param name="payloadWords">The amount of words stored along with each state - 0 for none.</param>
+        /// <param name="concurrent">Whether the store is to be used by several threads at once.</param>
+        SeenStateStore Create(int activityCount, int payloadWords, boolean concurrent);
+
+        /// <param name="concurrent">Whether the store is to be used by several threads at once.</param>
+        default SeenStateStore Create(int activityCount, boolean concurrent)
+        {
+            return Create(activityCount, 0, concurrent);
+        }
+    }
+
+    /// <returns>The value stored for the state, or ABSENT</returns>
+    default int Get(DcrState state)
+    {
+        return Get(state, null);
+    }
+
+    /// <param name="payload">Receives the payload-words stored for the state, if it is stored - null to skip them.</param>
+    /// <returns>The value stored for the state, or ABSENT</returns>
+    int Get(DcrState state, long[] payload);
+
+    /// <summary>
+    /// Stores the value for the state. The store may keep the given state, so it must not be modified afterwards.
+    /// </summary>
+    /// <returns>The value previously stored for the state, or ABSENT</returns>
+    default int Put(DcrState state, int value)
+    {
+        return Put(state, value, null);
+    }
+
+    /// <summary>
+    /// Stores the value and payload-words for the state. The store may keep the given state, so it must not be modified
+    /// afterwards - the payload is copied.
+    /// </summary>
+    /// <param name="payload">The payload-words - null to keep those stored, or all zeroes for a new state.</param>
+    /// <returns>The value previously stored for the state, or ABSENT</returns>
+    int Put(DcrState state, int value, long[] payload);
+
+    /// <summary>
+    /// Stores the value for the state, unless the state is already stored. The store may keep the given state, so it
+    /// must not be modified afterwards.
+    /// </summary>
+    /// <returns>Whether the state was not stored before</returns>
+    default boolean PutIfAbsent(DcrState state, int value)
+    {
+        return PutIfAbsent(state, value, null);
+    }
+
+    /// <summary>
+    /// Stores the value and payload-words for the state, unless the state is already stored. The store may keep the
+    /// given state, so it must not be modified afterwards - the payload is copied.
+    /// </summary>
+    /// <param name="payload">The payload-words - null for all zeroes.</param>
+    /// <returns>Whether the state was not stored before</returns>
+    boolean PutIfAbsent(DcrState state, int value, long[] payload);
+
+    long getSize();
+
+    void ForEach(ObjIntConsumer<DcrState> action);
+
+    /// <summary>
+    /// Releases the memory held by the store.
+    /// </summary>
+    @Override
+    void close();
+}
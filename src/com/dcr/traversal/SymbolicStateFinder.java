@@ -0,0 +1,205 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.utils.BddManager;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/// <summary>
+/// Symbolic counterpart of UniqueStateFinder: Represents sets of states as BDDs over three variables per activity -
+/// included, executed and pending (the runnable-bit follows from these) - and computes the reachable state-space as a
+/// fixpoint of images under the activities, one breadth-first layer at a time. The image of a set S under activity a
+/// is (exists V_a. S and Guard_a) and (v = c_v for v in V_a): Guard_a holds where a can run, and V_a are the variables
+/// a sets to the constants c_v. Counts are read off the BDDs without enumerating states, so graphs of many
+/// independent activities - whose explicit state-spaces grow exponentially - take polynomial space.
+/// </summary>
+public class SymbolicStateFinder {
+
+    private final BddManager _bdd;
+    private final int _activityCount;
+    private TraversalBudget _budget = TraversalBudget.Unlimited();
+
+    private int[] _guards;
+    private int[] _quantified;
+    private int[] _effects;
+    private int _final;
+
+    private int ReachableStates = BddManager.FALSE;
+    /// <summary>
+    /// The BDD (of getManager()) of the reachable states found by the last exploration.
+    /// </summary>
+    public int getReachableStates() { return ReachableStates; }
+
+    private int Iterations;
+    /// <summary>
+    /// The amount of image computations of the last exploration - the length of the longest shortest trace + 1.
+    /// </summary>
+    public int getIterations() { return Iterations; }
+
+    private TraversalResult LastResult;
+    public TraversalResult getLastResult() { return LastResult; }
+
+    public BddManager getManager() { return _bdd; }
+
+    public SymbolicStateFinder(ByteDcrGraph graph)
+    {
+        _activityCount = graph.getState().getActivityCount();
+        _bdd = new BddManager(3 * _activityCount);
+        EncodeRelations(graph);
+    }
+
+    // Variables of activity i, interleaved so that the bits of an activity are adjacent in the order
+    private static int Included(int i) { return 3 * i; }
+    private static int Executed(int i) { return 3 * i + 1; }
+    private static int Pending(int i) { return 3 * i + 2; }
+
+    public void setBudget(TraversalBudget budget)
+    {
+        _budget = budget;
+    }
+
+    private void EncodeRelations(ByteDcrGraph graph)
+    {
+        _guards = new int[_activityCount];
+        _quantified = new int[_activityCount];
+        _effects = new int[_activityCount];
+        _final = BddManager.TRUE;
+
+        for (int a = 0; a < _activityCount; a++)
+        {
+            // An activity can run if it is included, and all of its condition-sources are excluded or executed
+            int guard = _bdd.Var(Included(a));
+            for (int source = 0; source < _activityCount; source++)
+            {
+                if (graph.HasCondition(source, a))
+                {
+                    guard = _bdd.And(guard, _bdd.Or(_bdd.NVar(Included(source)), _bdd.Var(Executed(source))));
+                }
+            }
+            _guards[a] = guard;
+
+            // Executed = true, Pending = false, then includes, excludes and responses - as in ByteDcrGraph.ExecuteActivity
+            int[] variables = new int[3 * _activityCount];
+            int count = 0;
+            boolean[] set = new boolean[3 * _activityCount];
+            int[] value = new int[3 * _activityCount];
+            Assign(set, value, Executed(a), 1);
+            Assign(set, value, Pending(a), 0);
+            for (int target = 0; target < _activityCount; target++)
+            {
+                if (graph.HasInclusion(a, target)) Assign(set, value, Included(target), 1);
+            }
+            for (int target = 0; target < _activityCount; target++)
+            {
+                if (graph.HasExclusion(a, target)) Assign(set, value, Included(target), 0);
+                if (graph.HasResponse(a, target)) Assign(set, value, Pending(target), 1);
+            }
+
+            int effect = BddManager.TRUE;
+            for (int v = set.length - 1; v >= 0; v--)
+            {
+                if (!set[v]) continue;
+                variables[count++] = v;
+                effect = _bdd.And(effect, value[v] == 1 ? _bdd.Var(v) : _bdd.NVar(v));
+            }
+            _quantified[a] = _bdd.Cube(Arrays.copyOf(variables, count));
+            _effects[a] = effect;
+
+            // No activity may be both included and pending
+            _final = _bdd.And(_final, _bdd.Not(_bdd.And(_bdd.Var(Included(a)), _bdd.Var(Pending(a)))));
+        }
+    }
+
+    private static void Assign(boolean[] set, int[] value, int variable, int constant)
+    {
+        set[variable] = true;
+        value[variable] = constant;
+    }
+
+    /// <summary>
+    /// Computes the set of states reachable from the current state of the given graph, which must have the relations of
+    /// the graph given at construction.
+    /// </summary>
+    /// <returns>The BDD of the reachable states</returns>
+    public int FindReachableStates(ByteDcrGraph graph)
+    {
+        TraversalBudget.Monitor monitor = _budget.Start();
+        int reachable = Encode(graph.getState());
+        int frontier = reachable;
+        Iterations = 0;
+
+        while (frontier != BddManager.FALSE)
+        {
+            if (!monitor.Continue(0, 0)) break; // Out of budget: The states found so far
+            Iterations++;
+
+            int image = BddManager.FALSE;
+            for (int a = 0; a < _activityCount; a++)
+            {
+                image = _bdd.Or(image, Image(frontier, a));
+            }
+            frontier = _bdd.And(image, _bdd.Not(reachable));
+            reachable = _bdd.Or(reachable, frontier);
+        }
+
+        ReachableStates = reachable;
+        LastResult = monitor.Result(getReachableStateCount().min(BigInteger.valueOf(Long.MAX_VALUE)).longValue(), 0);
+        return reachable;
+    }
+
+    private int Image(int states, int activity)
+    {
+        return _bdd.And(_bdd.Exists(_bdd.And(states, _guards[activity]), _quantified[activity]), _effects[activity]);
+    }
+
+    /// <summary>
+    /// The BDD of the single given state.
+    /// </summary>
+    public int Encode(DcrState state)
+    {
+        int res = BddManager.TRUE;
+        for (int i = _activityCount - 1; i >= 0; i--)
+        {
+            res = _bdd.And(res, state.IsPending(i) ? _bdd.Var(Pending(i)) : _bdd.NVar(Pending(i)));
+            res = _bdd.And(res, state.IsExecuted(i) ? _bdd.Var(Executed(i)) : _bdd.NVar(Executed(i)));
+            res = _bdd.And(res, state.IsIncluded(i) ? _bdd.Var(Included(i)) : _bdd.NVar(Included(i)));
+        }
+        return res;
+    }
+
+    /// <summary>
+    /// The amount of reachable states - as UniqueStateFinder would find.
+    /// </summary>
+    public BigInteger getReachableStateCount()
+    {
+        return _bdd.SatCount(ReachableStates);
+    }
+
+    /// <summary>
+    /// The sum over the reachable states of the amount of runnable activities in each.
+    /// </summary>
+    public BigInteger getRunnableCountSum()
+    {
+        BigInteger res = BigInteger.ZERO;
+        for (int a = 0; a < _activityCount; a++)
+        {
+            res = res.add(_bdd.SatCount(_bdd.And(ReachableStates, _guards[a])));
+        }
+        return res;
+    }
+
+    /// <summary>
+    /// The amount of reachable final (accepting) states.
+    /// </summary>
+    public BigInteger getFinalStateCount()
+    {
+        return _bdd.SatCount(_bdd.And(ReachableStates, _final));
+    }
+
+    /// <summary>
+    /// The BDD of the final states - no activity both included and pending.
+    /// </summary>
+    public int getFinalStates() { return _final; }
+}
@@ -0,0 +1,178 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.utils.ComparableList;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/// <summary>
+/// The depth-first language discovery of UniqueTraceFinder, suspended after every accepting trace found: Each call to
+/// Next continues the traversal until the next accepting trace, so the language can be consumed one trace at a time.
+/// The depth-first search runs on an explicit stack of frames (one per executed activity in the current trace) rather
+/// than through recursion, so the depth of the state-space is not bounded by the thread's stack size.
+/// All executions happen in-place on a single copy of the given graph, which is rolled back through its undo log when
+/// backtracking, and the current trace is kept as a shared int-stack - only states and traces that are stored are copied.
+/// </summary>
+class TraceEnumerator
+{
+    private final ByteDcrGraph _graph;
+    private final SeenStateStore _seenStates; // Stores each seen state along with whether or not it has lead to an accepting trace (accepting state): 1 or 0
+    private final Consumer<ComparableList<Integer>> _earlyTerminationTraces;
+    private final TraversalBudget.Monitor _monitor;
+    private long _statesSeen;
+    private long _tracesFound;
+
+    private final DepthFirstStack _stack = new DepthFirstStack();
+    private DcrState[] _path = new DcrState[16];
+    private int _pathLength;
+    private int _pathAccepted;
+
+    // Set while the step that reached the last returned (accepting) trace is yet to be completed
+    private boolean _stepPending;
+    private boolean _stepFinal;
+    private ComparableList<Integer> _stepTrace;
+
+    /// <param name="inputGraph">The ByteDcrGraph for which we wish to discover the language (left unaltered).</param>
+    /// <param name="seenStates">Empty store for the states seen during the traversal.</param>
+    /// <param name="earlyTerminationTraces">Receives the traces reaching a previously seen state which leads to an
+    /// accepting trace - null if these are not needed.</param>
+    /// <param name="monitor">The budget of the traversal - once exhausted, Next returns null.</param>
+    TraceEnumerator(ByteDcrGraph inputGraph, SeenStateStore seenStates, Consumer<ComparableList<Integer>> earlyTerminationTraces,
+                    TraversalBudget.Monitor monitor)
+    {
+        _graph = inputGraph.Copy();
+        _graph.EnableUndoLog();
+        _seenStates = seenStates;
+        _earlyTerminationTraces = earlyTerminationTraces;
+        _monitor = monitor;
+
+        /* The states seen in the current trace are kept as a path: The initial state followed by every newly reached,
+         * non-final state on the way to the current one. These are the states that are to be updated as 'leading to an
+         * accepting trace/state later on' when we reach a final state. Everything below _pathAccepted is known to be
+         * updated already, so every state is only updated once for as long as it stays on the path. */
+        PushPathState(_graph.getState().Copy());
+        _statesSeen = 1;
+        _stack.Push(_graph).PathLength = _pathLength;
+    }
+
+    /// <returns>The next accepting trace (as activity indexes), or null when the whole language has been discovered (or
+    /// the budget ran out)</returns>
+    ComparableList<Integer> Next()
+    {
+        if (_stepPending)
+        {
+            _stepPending = false;
+            CompleteStep(_stepFinal, _stepTrace);
+        }
+
+        DepthFirstStack stack = _stack;
+        while (!stack.IsEmpty())
+        {
+            if (!_monitor.Continue(_statesSeen, _tracesFound))
+            {
+                Stop(); // Out of budget
+                return null;
+            }
+            DepthFirstStack.Frame frame = stack.Peek();
+            if (!frame.HasNext())
+            {
+                stack.Pop();
+                continue;
+            }
+            int activity = frame.NextActivity();
+
+            // Backtrack to the state of this frame
+            _graph.UndoTo(frame.UndoMark);
+            _pathLength = frame.PathLength;
+            _pathAccepted = Math.min(_pathAccepted, _pathLength);
+
+            // Execute and add event to trace
+            _graph.ExecuteActivity(activity);
+            stack.SetTraceStep(activity);
+
+            boolean isFinalState = ByteDcrGraph.IsFinalState(_graph.getState());
+            if (isFinalState)
+            {
+                // This trace is a unique, accepting trace
+                ComparableList<Integer> currentTraceCopy = stack.CurrentTrace();
+
+                // Store the fact that all the states seen until here, lead to some accepting trace:
+                // NOTE: **Intended**: Only set true for the states PRIOR to the change we've just seen (by activity execution)
+                // NOTE: ^--> We handle the (non-)occurrence of whether the new state reached was seen before in CompleteStep
+                for (int i = _pathAccepted; i < _pathLength; i++)
+                {
+                    _seenStates.Put(_path[i], 1); // The states seen prior in trace all lead to a final state via the language
+                }
+                // Optimization: We don't need to re-update these states for every other path to acceptance from here on
+                _pathAccepted = _pathLength;
+
+                // Hand out the trace - the step is completed on the next call
+                _stepPending = true;
+                _stepFinal = true;
+                _stepTrace = currentTraceCopy;
+                _tracesFound++;
+                return currentTraceCopy;
+            }
+
+            CompleteStep(false, null);
+        }
+        return null;
+    }
+
+    TraversalResult Result()
+    {
+        return _monitor.Result(_statesSeen, _tracesFound);
+    }
+
+    /// <summary>
+    /// Stops the traversal - Next will return null from now on.
+    /// </summary>
+    void Stop()
+    {
+        _stepPending = false;
+        _stack.Clear();
+    }
+
+    private void CompleteStep(boolean isFinalState, ComparableList<Integer> currentTraceCopy)
+    {
+        // If we have not seen the state before (successfully ADD it to the state)
+        int leadsToAcceptingTrace = _seenStates.Get(_graph.getState());
+        if (leadsToAcceptingTrace != SeenStateStore.ABSENT) { // the map already contains the given state (seen before):
+
+            /* ASSUMPTION: When checking for previously having seen our newly reached state,
+             * the "leadsToAcceptingState" value is fully updated and dependable on due to D-F-S. */
+            if (leadsToAcceptingTrace == 1 && _earlyTerminationTraces != null) {
+                if (currentTraceCopy == null) currentTraceCopy = _stack.CurrentTrace();
+                // Add to collection of traces that reached previously seen states through different, alternate paths
+                _earlyTerminationTraces.accept(currentTraceCopy);
+            }
+        }
+        else { // this is the first time we see this state
+            /* Perform the first observation of this newly reached state along with the local knowledge of whether it leads to a final state,
+             * determined by whether it itself is one such final state */
+            DcrState reached = _graph.getState().Copy();
+            _seenStates.Put(reached, isFinalState ? 1 : 0);
+            _statesSeen++;
+
+            // Add newly reached state, because it's not a final state itself, so we will have to update later if we reach a final state later
+            if (!isFinalState)
+            {
+                PushPathState(reached);
+            }
+
+            // "RECURSION":
+            _stack.Push(_graph).PathLength = _pathLength;
+        }
+    }
+
+    private void PushPathState(DcrState state)
+    {
+        if (_pathLength == _path.length)
+        {
+            _path = Arrays.copyOf(_path, _path.length * 2);
+        }
+        _path[_pathLength++] = state;
+    }
+}
@@ -0,0 +1,311 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/// <summary>
+/// The reachable labelled transition system of a ByteDcrGraph, compiled once into a compressed-sparse-row layout:
+/// States are numbered 0 (the initial state) to getStateCount() - 1 in breadth-first order, and the outgoing edges of
+/// state s - one per runnable activity, ordered by activity index - are EdgeActivity/EdgeTarget[EdgeStart[s]] to
+/// [EdgeStart[s + 1] - 1]. The states themselves are not kept, so analyses sharing the structure (state counting,
+/// reachability, language enumeration, precision) never execute an activity again.
+/// </summary>
+public class TransitionSystem
+{
+    private final HashMap<Integer, String> _indexToActivityId;
+    private final HashMap<String, Integer> _activityIdToIndex;
+
+    private int StateCount;
+    public int getStateCount() { return StateCount; }
+
+    private int[] EdgeStart;
+    private int[] EdgeActivity;
+    private int[] EdgeTarget;
+    private boolean[] Accepting;
+
+    private TraversalResult CompileResult;
+    /// <summary>
+    /// Whether the whole reachable state-space was compiled. If the budget ran out, the states found but not yet
+    /// expanded have no outgoing edges.
+    /// </summary>
+    public TraversalResult getCompileResult() { return CompileResult; }
+
+    private TransitionSystem(ByteDcrGraph graph)
+    {
+        _indexToActivityId = graph.getIndexToActivityId();
+        _activityIdToIndex = graph.getActivityIdToIndex();
+    }
+
+    public static TransitionSystem Compile(ByteDcrGraph graph)
+    {
+        return Compile(graph, TraversalBudget.Unlimited());
+    }
+
+    public static TransitionSystem Compile(ByteDcrGraph graph, TraversalBudget budget)
+    {
+        return Compile(graph, budget, HeapSeenStateStore::new);
+    }
+
+    /// <param name="storeFactory">Creates the store numbering the states while compiling - only the compiled
+    /// structure is kept afterwards.</param>
+    public static TransitionSystem Compile(ByteDcrGraph inputGraph, TraversalBudget budget, SeenStateStore.Factory storeFactory)
+    {
+        TransitionSystem res = new TransitionSystem(inputGraph);
+        TraversalBudget.Monitor monitor = budget.Start();
+
+        ByteDcrGraph graph = inputGraph.Copy();
+        int activityCount = graph.getState().getActivityCount();
+        int[] runnable = new int[activityCount];
+
+        boolean[] accepting = new boolean[16];
+        int[] edgeStart = new int[16];
+        int[] edgeActivity = new int[16];
+        int[] edgeTarget = new int[16];
+        int stateCount = 0;
+        int edgeCount = 0;
+        int expanded = 0;
+
+        // Only needed while compiling
+        try (SeenStateStore ids = storeFactory.Create(activityCount, false))
+        {
+            // Breadth-first: The states are expanded in the order of their ids, so the queue only holds the states
+            // found but not yet expanded, and their edges are appended in the order of the ids
+            ArrayDeque<DcrState> queue = new ArrayDeque<>();
+            DcrState initialState = graph.getState().Copy();
+            ids.Put(initialState, stateCount);
+            accepting[stateCount++] = initialState.IsFinalState();
+            queue.add(initialState);
+
+            for (; !queue.isEmpty(); expanded++)
+            {
+                if (!monitor.Continue(stateCount, 0)) break; // Out of budget
+
+                if (expanded + 1 >= edgeStart.length) edgeStart = Arrays.copyOf(edgeStart, edgeStart.length * 2);
+                edgeStart[expanded] = edgeCount;
+
+                graph.SetState(queue.poll());
+                graph.EnableUndoLog();
+                int count = graph.FillRunnableIndexes(runnable);
+                for (int i = 0; i < count; i++)
+                {
+                    graph.UndoTo(0);
+                    graph.ExecuteActivity(runnable[i]);
+
+                    int target = ids.Get(graph.getState());
+                    if (target == SeenStateStore.ABSENT)
+                    {
+                        DcrState reached = graph.getState().Copy();
+                        target = stateCount;
+                        ids.Put(reached, target);
+                        if (stateCount == accepting.length) accepting = Arrays.copyOf(accepting, stateCount * 2);
+                        accepting[stateCount++] = reached.IsFinalState();
+                        queue.add(reached);
+                    }
+
+                    if (edgeCount == edgeActivity.length)
+                    {
+                        edgeActivity = Arrays.copyOf(edgeActivity, edgeCount * 2);
+                        edgeTarget = Arrays.copyOf(edgeTarget, edgeCount * 2);
+                    }
+                    edgeActivity[edgeCount] = runnable[i];
+                    edgeTarget[edgeCount] = target;
+                    edgeCount++;
+                }
+            }
+        }
+
+        // States left unexpanded (out of budget) get no edges
+        res.StateCount = stateCount;
+        res.EdgeStart = Arrays.copyOf(edgeStart, res.StateCount + 1);
+        for (int s = expanded; s <= res.StateCount; s++)
+        {
+            res.EdgeStart[s] = edgeCount;
+        }
+        res.EdgeActivity = Arrays.copyOf(edgeActivity, edgeCount);
+        res.EdgeTarget = Arrays.copyOf(edgeTarget, edgeCount);
+        res.Accepting = Arrays.copyOf(accepting, stateCount);
+        res.CompileResult = monitor.Result(res.StateCount, 0);
+        return res;
+    }
+
+    public int getInitialState() { return 0; }
+
+    public int getTransitionCount() { return EdgeTarget.length; }
+
+    public boolean IsAccepting(int state) { return Accepting[state]; }
+
+    public int getRunnableCount(int state) { return EdgeStart[state + 1] - EdgeStart[state]; }
+
+    /// <summary>
+    /// The sum of the amount of runnable activities over all states.
+    /// </summary>
+    public long getRunnableCountSum() { return EdgeTarget.length; }
+
+    public HashMap<Integer, String> getIndexToActivityId() { return _indexToActivityId; }
+
+    public HashMap<String, Integer> getActivityIdToIndex() { return _activityIdToIndex; }
+
+    /// <returns>The state reached by executing the activity in the given state, or -1 if it cannot run there</returns>
+    public int Successor(int state, int activity)
+    {
+        int edge = Arrays.binarySearch(EdgeActivity, EdgeStart[state], EdgeStart[state + 1], activity);
+        return edge < 0 ? -1 : EdgeTarget[edge];
+    }
+
+    /// <summary>
+    /// Whether some non-empty trace is accepting (like !UniqueTraceFinder.hasNoAcceptingTrace) - as every state is
+    /// reachable, that is whether any edge leads to an accepting state.
+    /// </summary>
+    public boolean HasAcceptingTrace()
+    {
+        for (int target : EdgeTarget)
+        {
+            if (Accepting[target]) return true;
+        }
+        return false;
+    }
+
+    /// <summary>
+    /// The states from which an accepting state can be reached (including the accepting states themselves), found
+    /// backwards from the accepting states over the reversed edges.
+    /// </summary>
+    public boolean[] ComputeLeadsToAcceptance()
+    {
+        // Reverse the edges into CSR form
+        int[] reverseStart = new int[StateCount + 1];
+        for (int target : EdgeTarget) reverseStart[target + 1]++;
+        for (int s = 0; s < StateCount; s++) reverseStart[s + 1] += reverseStart[s];
+        int[] reverseSource = new int[EdgeTarget.length];
+        int[] fill = Arrays.copyOf(reverseStart, StateCount);
+        for (int s = 0; s < StateCount; s++)
+        {
+            for (int e = EdgeStart[s]; e < EdgeStart[s + 1]; e++)
+            {
+                reverseSource[fill[EdgeTarget[e]]++] = s;
+            }
+        }
+
+        boolean[] res = new boolean[StateCount];
+        int[] queue = new int[StateCount];
+        int head = 0, tail = 0;
+        for (int s = 0; s < StateCount; s++)
+        {
+            if (Accepting[s])
+            {
+                res[s] = true;
+                queue[tail++] = s;
+            }
+        }
+        while (head < tail)
+        {
+            int s = queue[head++];
+            for (int e = reverseStart[s]; e < reverseStart[s + 1]; e++)
+            {
+                int source = reverseSource[e];
+                if (!res[source])
+                {
+                    res[source] = true;
+                    queue[tail++] = source;
+                }
+            }
+        }
+        return res;
+    }
+
+    /// <summary>
+    /// Enumerates the same traces as UniqueTraceFinder: A depth-first search in activity order which does not continue
+    /// from previously seen states, reporting each trace (as activity indexes) that ends in an accepting state.
+    /// The given array is reused between calls - copy it to keep it.
+    /// </summary>
+    public void ForEachUniqueTrace(Consumer<int[]> action)
+    {
+        ForEachUniqueTrace(action, null);
+    }
+
+    /// <summary>
+    /// As ForEachUniqueTrace, also reporting the traces that reach a previously seen state known to lead to an
+    /// accepting trace - the early termination traces of UniqueTraceFinder. Mirrors TraceEnumerator step by step.
+    /// </summary>
+    /// <param name="earlyTerminationTraces">Receives the early termination traces - null if these are not needed.</param>
+    public void ForEachUniqueTrace(Consumer<int[]> action, Consumer<int[]> earlyTerminationTraces)
+    {
+        // Per state: Unseen, seen, or seen and known to lead to an accepting trace
+        // NOTE: Like in TraceEnumerator, the initial state only counts as seen once known to lead to an accepting trace
+        final byte unseen = -1;
+        byte[] leadsToAcceptingTrace = new byte[StateCount];
+        Arrays.fill(leadsToAcceptingTrace, unseen);
+
+        // The states on the way to the current one which are not yet known to lead to an accepting trace - see
+        // TraceEnumerator for the path
+        int[] path = new int[16];
+        path[0] = 0;
+        int pathLength = 1;
+        int pathAccepted = 0;
+
+        int[] stateStack = new int[16];
+        int[] nextEdge = new int[16];
+        int[] pathLengths = new int[16];
+        int[] trace = new int[16];
+        int top = 0;
+        stateStack[0] = 0;
+        nextEdge[0] = EdgeStart[0];
+        pathLengths[0] = pathLength;
+
+        while (top >= 0)
+        {
+            int state = stateStack[top];
+            if (nextEdge[top] == EdgeStart[state + 1])
+            {
+                top--;
+                continue;
+            }
+            int edge = nextEdge[top]++;
+            int target = EdgeTarget[edge];
+            trace[top] = EdgeActivity[edge];
+            pathLength = pathLengths[top];
+            pathAccepted = Math.min(pathAccepted, pathLength);
+
+            if (Accepting[target])
+            {
+                for (int i = pathAccepted; i < pathLength; i++)
+                {
+                    leadsToAcceptingTrace[path[i]] = 1;
+                }
+                pathAccepted = pathLength;
+                action.accept(Arrays.copyOf(trace, top + 1));
+            }
+
+            if (leadsToAcceptingTrace[target] != unseen)
+            {
+                if (leadsToAcceptingTrace[target] == 1 && earlyTerminationTraces != null)
+                {
+                    earlyTerminationTraces.accept(Arrays.copyOf(trace, top + 1));
+                }
+                continue;
+            }
+            leadsToAcceptingTrace[target] = (byte) (Accepting[target] ? 1 : 0);
+            if (!Accepting[target])
+            {
+                if (pathLength == path.length) path = Arrays.copyOf(path, pathLength * 2);
+                path[pathLength++] = target;
+            }
+
+            top++;
+            if (top == stateStack.length)
+            {
+                stateStack = Arrays.copyOf(stateStack, top * 2);
+                nextEdge = Arrays.copyOf(nextEdge, top * 2);
+                pathLengths = Arrays.copyOf(pathLengths, top * 2);
+                trace = Arrays.copyOf(trace, top * 2);
+            }
+            stateStack[top] = target;
+            nextEdge[top] = EdgeStart[target];
+            pathLengths[top] = pathLength;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.dcr.traversal;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/// <summary>
+/// Bounds on a traversal - states visited, traces found, wall-clock time and used heap - along with cooperative
+/// cancellation: A traversal stops at its next step once Cancel is called, or once the thread running it (or, when
+/// running in parallel, any of its workers) is interrupted. Limits default to unbounded.
+/// A budget may be reused: Every traversal measures its own time and counts from when it starts.
+/// </summary>
+public class TraversalBudget {
+
+    // Time and memory are only looked up every this many steps (must be a power of 2)
+    private static final int ClockInterval = 1024;
+
+    private long MaxStates = Long.MAX_VALUE;
+    public long getMaxStates() { return MaxStates; }
+    public void setMaxStates(long value) { MaxStates = value; }
+
+    private long MaxTraces = Long.MAX_VALUE;
+    public long getMaxTraces() { return MaxTraces; }
+    public void setMaxTraces(long value) { MaxTraces = value; }
+
+    private long MaxMillis = Long.MAX_VALUE;
+    public long getMaxMillis() { return MaxMillis; }
+    public void setMaxMillis(long value) { MaxMillis = value; }
+
+    // NOTE: Only the heap is measured - states kept by an OffHeapSeenStateStore do not count
+    private long MaxUsedHeapBytes = Long.MAX_VALUE;
+    public long getMaxUsedHeapBytes() { return MaxUsedHeapBytes; }
+    public void setMaxUsedHeapBytes(long value) { MaxUsedHeapBytes = value; }
+
+    private volatile boolean Cancelled;
+    public boolean isCancelled() { return Cancelled; }
+
+    public static TraversalBudget Unlimited()
+    {
+        return new TraversalBudget();
+    }
+
+    /// <summary>
+    /// Stops all traversals running within this budget - and any started later, until Reset is called.
+    /// </summary>
+    public void Cancel()
+    {
+        Cancelled = true;
+    }
+
+    public void Reset()
+    {
+        Cancelled = false;
+    }
+
+    /// <summary>
+    /// Starts measuring a single traversal.
+    /// </summary>
+    Monitor Start()
+    {
+        return new Monitor();
+    }
+
+    /// <summary>
+    /// The budget of a single traversal in progress. Safe to share between the workers of a parallel traversal:
+    /// The first limit reached is kept, and stops all of them.
+    /// </summary>
+    class Monitor
+    {
+        private final long _startNanos = System.nanoTime();
+        private final AtomicReference<TraversalStatus> _stopReason = new AtomicReference<>();
+        private int _steps; // Racy when shared - only used to spread out the clock- and memory-lookups
+
+        /// <returns>Whether the traversal may take another step, having visited and found the given amounts so far</returns>
+        boolean Continue(long statesVisited, long tracesFound)
+        {
+            if (_stopReason.get() != null) return false;
+
+            if (Cancelled || Thread.currentThread().isInterrupted()) return Stop(TraversalStatus.Cancelled);
+            if (statesVisited >= MaxStates) return Stop(TraversalStatus.StateLimitReached);
+            if (tracesFound >= MaxTraces) return Stop(TraversalStatus.TraceLimitReached);
+
+            if ((++_steps & (ClockInterval - 1)) == 0)
+            {
+                if (getElapsedMillis() > MaxMillis) return Stop(TraversalStatus.TimeLimitReached);
+                if (MaxUsedHeapBytes != Long.MAX_VALUE)
+                {
+                    Runtime runtime = Runtime.getRuntime();
+                    if (runtime.totalMemory() - runtime.freeMemory() > MaxUsedHeapBytes) return Stop(TraversalStatus.MemoryLimitReached);
+                }
+            }
+            return true;
+        }
+
+        /// <summary>
+        /// Runs the task of a parallel traversal in the pool, relaying an interrupt of the calling thread - which only
+        /// waits for the workers - to the workers, by stopping them as cancelled. The interrupt status is kept.
+        /// </summary>
+        void Invoke(ForkJoinPool pool, ForkJoinTask<?> task)
+        {
+            ForkJoinTask<?> running = pool.submit(task);
+            boolean interrupted = false;
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        running.get();
+                        return;
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                        Stop(TraversalStatus.Cancelled); // ... and wait for the workers to notice
+                    }
+                    catch (ExecutionException e)
+                    {
+                        if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                        if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+            }
+            finally
+            {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean IsStopped()
+        {
+            return _stopReason.get() != null;
+        }
+
+        private boolean Stop(TraversalStatus reason)
+        {
+            _stopReason.compareAndSet(null, reason);
+            return false;
+        }
+
+        long getElapsedMillis()
+        {
+            return (System.nanoTime() - _startNanos) / 1000000;
+        }
+
+        TraversalResult Result(long statesVisited, long tracesFound)
+        {
+            TraversalStatus reason = _stopReason.get();
+            return new TraversalResult(reason == null ? TraversalStatus.Completed : reason, statesVisited, tracesFound, getElapsedMillis());
+        }
+    }
+}
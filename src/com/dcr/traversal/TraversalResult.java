@@ -0,0 +1,37 @@
+package com.dcr.traversal;
+
+/// <summary>
+/// Outcome of a (possibly budgeted) traversal: Whether it explored everything, or why it was cut short.
+/// The results gathered by a truncated traversal are partial.
+/// </summary>
+public class TraversalResult {
+
+    private TraversalStatus Status;
+    public TraversalStatus getStatus() { return Status; }
+
+    private long StatesVisited;
+    public long getStatesVisited() { return StatesVisited; }
+
+    private long TracesFound;
+    public long getTracesFound() { return TracesFound; }
+
+    private long ElapsedMillis;
+    public long getElapsedMillis() { return ElapsedMillis; }
+
+    public TraversalResult(TraversalStatus status, long statesVisited, long tracesFound, long elapsedMillis)
+    {
+        Status = status;
+        StatesVisited = statesVisited;
+        TracesFound = tracesFound;
+        ElapsedMillis = elapsedMillis;
+    }
+
+    public boolean isCompleted() { return Status == TraversalStatus.Completed; }
+
+    public boolean isTruncated() { return !isCompleted(); }
+
+    @Override
+    public String toString() {
+        return String.format("%s after %d states, %d traces and %d ms", Status, StatesVisited, TracesFound, ElapsedMillis);
+    }
+}
@@ -0,0 +1,3 @@
+package com.dcr.traversal;
+
+public enum TraversalStatus { Completed, StateLimitReached, TraceLimitReached, TimeLimitReached, MemoryLimitReached, Cancelled }
@@ -1,109 +1,333 @@
 package com.dcr.traversal;
 
-import com.dcr.datamodels.Activity;
 import com.dcr.datamodels.ByteDcrGraph;
 import com.dcr.datamodels.DcrGraph;
+import com.dcr.datamodels.DcrState;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/// <summary>
+/// Discovers the reachable state-space of a graph along with the amount of runnable activities in each state.
+/// All traversal-state is held per instance (and per call), so separate instances may be used concurrently.
+/// With a parallelism above 1 the state-space is explored by work-stealing ForkJoinPool workers sharing one concurrent
+/// set of seen states - the resulting map is the same as when exploring sequentially.
+/// The seen states are kept in a SeenStateStore - on the heap by default, or off the heap for state-spaces too large for it.
+/// </summary>
 public class UniqueStateFinder {
-    public static Integer Counter;
+    // A worker hands newly discovered states to other workers while fewer than this many tasks are queued up for stealing
+    private static final int SplitThreshold = 2;
 
-    private static List<DcrGraph> _seenStates;
-    private static HashMap<List<Byte>, Integer> _seenStatesWithRunnableActivityCount;
+    private final int _parallelism;
+    private final SeenStateStore.Factory _storeFactory;
+    private boolean _partialOrderReduction;
+    private TraversalBudget _budget = TraversalBudget.Unlimited();
+    private TraversalBudget.Monitor _monitor;
 
+    private final AtomicLong _statesVisited = new AtomicLong();
+    public long getStatesVisited() { return _statesVisited.get(); }
 
-    public static HashMap<List<Byte>, Integer> GetUniqueStatesWithRunnableActivityCount(DcrGraph inputGraph)
+    private final LongAdder _activitiesExecuted = new LongAdder();
+    public long getActivitiesExecuted() { return _activitiesExecuted.sum(); }
+
+    public UniqueStateFinder()
     {
-        // Start from scratch
-        _seenStates = new ArrayList<>();
-        _seenStatesWithRunnableActivityCount = new HashMap<>();
+        this(1);
+    }
+
+    /// <param name="parallelism">The amount of worker threads exploring the state-space - 1 explores on the calling thread.</param>
+    public UniqueStateFinder(int parallelism)
+    {
+        this(parallelism, HeapSeenStateStore::new);
+    }
+
+    /// <param name="storeFactory">Creates the store of seen states for each exploration.</param>
+    public UniqueStateFinder(int parallelism, SeenStateStore.Factory storeFactory)
+    {
+        _parallelism = Math.max(1, parallelism);
+        _storeFactory = storeFactory;
+    }
 
-        FindUniqueStatesInclRunnableActivityCountDepthFirstBytes(new ByteDcrGraph(inputGraph, null));
+    /// <summary>
+    /// Whether sequential explorations skip redundant interleavings of independent activities (see
+    /// ByteDcrGraph.ComputeIndependence) by sleep sets. Every reachable state is still visited - only executions that
+    /// are known to lead to already covered states are skipped - so the resulting states and counts are exact.
+    /// Parallel explorations are never reduced.
+    /// </summary>
+    public void setPartialOrderReduction(boolean partialOrderReduction)
+    {
+        _partialOrderReduction = partialOrderReduction;
+    }
 
-        return _seenStatesWithRunnableActivityCount;
+    /// <summary>
+    /// Bounds the explorations to come - an exploration exceeding it stops early, returning the states found so far.
+    /// </summary>
+    public void setBudget(TraversalBudget budget)
+    {
+        _budget = budget;
     }
 
-    private static void FindUniqueStatesInclRunnableActivityCount(DcrGraph inputGraph) throws Exception {
-        Counter++;
-        HashSet<Activity> activitiesToRun = inputGraph.GetRunnableActivities();
-        List<DcrGraph> iterations = new ArrayList<>();
+    private TraversalResult LastResult;
+    /// <summary>
+    /// Whether the last exploration completed, or was truncated by the budget.
+    /// </summary>
+    public TraversalResult getLastResult() { return LastResult; }
 
-        _seenStates.add(inputGraph);
+    public HashMap<DcrState, Integer> GetUniqueStatesWithRunnableActivityCount(DcrGraph inputGraph)
+    {
+        return GetUniqueStatesWithRunnableActivityCount(new ByteDcrGraph(inputGraph, null));
+    }
 
-        List<Byte> hashed = DcrGraph.HashDcrGraph(inputGraph, null);
-        if (! _seenStatesWithRunnableActivityCount.containsKey(hashed)) {
-            _seenStatesWithRunnableActivityCount.put(hashed, ((int) activitiesToRun.stream().map(Activity::getId).count()));
+    public HashMap<DcrState, Integer> GetUniqueStatesWithRunnableActivityCount(ByteDcrGraph inputGraph)
+    {
+        HashMap<DcrState, Integer> res = new HashMap<>();
+        try (SeenStateStore seenStates = FindUniqueStates(inputGraph))
+        {
+            seenStates.ForEach(res::put);
         }
+        return res;
+    }
 
-        for (Activity activity : activitiesToRun) {
-            // Spawn new work
-            DcrGraph inputGraphCopy = inputGraph.Copy();
-            inputGraphCopy.setRunning(true);
-            inputGraphCopy.Execute(inputGraphCopy.getActivity(activity.getId()));
+    /// <summary>
+    /// Explores the state-space of the graph into a TransitionSystem - numbering the states in stores of this finder's
+    /// factory, within its budget - so that further analyses of the state-space need not execute any activity again.
+    /// Compiling is always sequential and never reduced, as every transition is kept.
+    /// </summary>
+    public TransitionSystem CompileTransitionSystem(ByteDcrGraph inputGraph)
+    {
+        TransitionSystem res = TransitionSystem.Compile(inputGraph, _budget, _storeFactory);
+        _statesVisited.set(res.getStateCount());
+        _activitiesExecuted.reset();
+        _activitiesExecuted.add(res.getTransitionCount());
+        LastResult = res.getCompileResult();
+        return res;
+    }
 
-            boolean stateSeen = _seenStates.stream().anyMatch(seenState -> seenState.AreInEqualState(inputGraphCopy));
-            if (!stateSeen)
+    /// <summary>
+    /// Explores the state-space of the graph without gathering it on the heap.
+    /// </summary>
+    /// <returns>The store of all reachable states along with the amount of runnable activities in each - to be closed by the caller</returns>
+    public SeenStateStore FindUniqueStates(ByteDcrGraph inputGraph)
+    {
+        // Start from scratch
+        _statesVisited.set(0);
+        _activitiesExecuted.reset();
+        _monitor = _budget.Start();
+        DcrState initialState = inputGraph.getState().Copy();
+        boolean sleepSets = _parallelism == 1 && _partialOrderReduction;
+        // With sleep sets, each state's entry holds the sleep set it was explored with as well
+        int payloadWords = sleepSets ? DcrState.WidthFor(initialState.getActivityCount()) : 0;
+        SeenStateStore seenStates = _storeFactory.Create(initialState.getActivityCount(), payloadWords, _parallelism > 1);
+        Claim(seenStates, initialState, null);
+
+        if (sleepSets)
+        {
+            FindUniqueStatesWithSleepSets(inputGraph, initialState, seenStates);
+        }
+        else if (_parallelism == 1)
+        {
+            FindUniqueStatesInclRunnableActivityCountDepthFirstBytes(inputGraph, initialState, seenStates, null);
+        }
+        else
+        {
+            ForkJoinPool pool = new ForkJoinPool(_parallelism);
+            try
+            {
+                _monitor.Invoke(pool, new ExploreTask(null, inputGraph, initialState, seenStates));
+            }
+            finally
             {
-                // Register wish to continue
-                iterations.add(inputGraphCopy);
+                pool.shutdown();
             }
         }
+        LastResult = _monitor.Result(_statesVisited.get(), 0);
+        return seenStates;
+    }
+
+    // Completes once it and all the tasks it forked have completed - without ever joining (and thus nesting) tasks
+    private class ExploreTask extends CountedCompleter<Void>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteDcrGraph _template;
+        private final DcrState _start;
+        private final SeenStateStore _seenStates;
+
+        ExploreTask(ExploreTask parent, ByteDcrGraph template, DcrState start, SeenStateStore seenStates)
+        {
+            super(parent);
+            _template = template;
+            _start = start;
+            _seenStates = seenStates;
+        }
 
-        // For each case where we want to go deeper, recurse
-        for (DcrGraph unseenState : iterations)
+        @Override
+        public void compute()
         {
-            FindUniqueStatesInclRunnableActivityCount(unseenState);
+            if (!_monitor.IsStopped())
+            {
+                FindUniqueStatesInclRunnableActivityCountDepthFirstBytes(_template, _start, _seenStates, this);
+            }
+            tryComplete();
         }
     }
 
-    private static void FindUniqueStatesInclRunnableActivityCountDepthFirstBytes(ByteDcrGraph inputGraph)
+    /// <summary>
+    /// Explicit-stack depth-first search from an already claimed start-state (no recursion - the depth of the state-space
+    /// is not bounded by the thread's stack size), executing in-place on a single copy of the template graph which is rolled
+    /// back through its undo log when backtracking.
+    /// </summary>
+    /// <param name="task">When running inside a ForkJoinPool: The task to fork work off from, to explore some of the newly
+    /// claimed states on other workers. Null when exploring sequentially.</param>
+    private void FindUniqueStatesInclRunnableActivityCountDepthFirstBytes(ByteDcrGraph template, DcrState start,
+                                                                          SeenStateStore seenStates, ExploreTask task)
     {
-        Counter++;
-        List<Integer> activitiesToRun = inputGraph.GetRunnableIndexes();
+        ByteDcrGraph graph = template.Copy();
+        graph.SetState(start);
+        graph.EnableUndoLog();
 
-        List<Byte> clone = new ArrayList<>(inputGraph.getState());
-        _seenStatesWithRunnableActivityCount.put(clone, activitiesToRun.size());
+        DepthFirstStack stack = new DepthFirstStack();
+        stack.Push(graph);
 
-        for (int activityIdx : activitiesToRun)
+        while (!stack.IsEmpty())
         {
+            if (!_monitor.Continue(_statesVisited.get(), 0)) return; // Out of budget
+            DepthFirstStack.Frame frame = stack.Peek();
+            if (!frame.HasNext())
+            {
+                stack.Pop();
+                continue;
+            }
+
             // Spawn new work
-            ByteDcrGraph inputGraphCopy = inputGraph.Copy();
-            inputGraphCopy.ExecuteActivity(activityIdx);
+            graph.UndoTo(frame.UndoMark);
+            graph.ExecuteActivity(frame.NextActivity());
+            _activitiesExecuted.increment();
 
-            boolean stateSeen = _seenStatesWithRunnableActivityCount.containsKey(inputGraphCopy.getState());
+            boolean stateSeen = seenStates.Get(graph.getState()) != SeenStateStore.ABSENT;
             if (!stateSeen)
             {
-                // Register wish to continue
-                FindUniqueStatesInclRunnableActivityCountDepthFirstBytes(inputGraphCopy);
+                DcrState reached = graph.getState().Copy();
+                if (!Claim(seenStates, reached, null)) continue; // Another worker got here first
+
+                // Register wish to continue - on another worker if some are idle
+                if (task != null && ForkJoinTask.getSurplusQueuedTaskCount() < SplitThreshold)
+                {
+                    task.addToPendingCount(1);
+                    new ExploreTask(task, template, reached, seenStates).fork();
+                }
+                else
+                {
+                    stack.Push(graph);
+                }
             }
         }
     }
 
-    private static void FindUniqueStatesInclRunnableActivityCountDepthFirst(DcrGraph inputGraph) throws Exception {
-        Counter++;
-        HashSet<Activity> activitiesToRun = inputGraph.GetRunnableActivities();
+    /// <summary>
+    /// Depth-first search with sleep sets and state matching (Godefroid): The sleep set of a frame holds the activities
+    /// whose executions from its state are covered by an already explored sibling, which the executions of independent
+    /// activities carry over to the next state. Each seen state remembers the sleep set it was explored with, and is
+    /// re-explored on a later visit only for the activities that were asleep before but are not anymore, so every
+    /// reachable state is still found. The sleep sets are the payloads of the seen states, so each state is stored once.
+    /// </summary>
+    private void FindUniqueStatesWithSleepSets(ByteDcrGraph template, DcrState start, SeenStateStore seenStates)
+    {
+        ByteDcrGraph graph = template.Copy();
+        graph.SetState(start);
+        graph.EnableUndoLog();
 
-        List<Byte> hashed = DcrGraph.HashDcrGraph(inputGraph, null);
-        _seenStatesWithRunnableActivityCount.put(hashed, (int)activitiesToRun.stream().map(Activity::getId).count());
+        long[][] independence = graph.ComputeIndependence();
+        int width = DcrState.WidthFor(start.getActivityCount());
 
+        // The start state was claimed with an empty sleep set
+        DepthFirstStack stack = new DepthFirstStack();
+        PushWithSleepSet(stack, graph, new long[width], width);
+        ExploreWithSleepSets(graph, stack, independence, width, seenStates);
+    }
 
-        for (Activity activity : activitiesToRun)
+    private void ExploreWithSleepSets(ByteDcrGraph graph, DepthFirstStack stack, long[][] independence, int width,
+                                      SeenStateStore seenStates)
+    {
+        while (!stack.IsEmpty())
         {
-            // Spawn new work
-            DcrGraph inputGraphCopy = inputGraph.Copy();
-            inputGraphCopy.setRunning(true);
-            inputGraphCopy.Execute(inputGraphCopy.getActivity(activity.getId()));
+            if (!_monitor.Continue(_statesVisited.get(), 0)) return; // Out of budget
+            DepthFirstStack.Frame frame = stack.Peek();
+            if (!frame.HasNext())
+            {
+                stack.Pop();
+                continue;
+            }
+            int activity = frame.NextActivity();
 
-            boolean stateSeen = _seenStatesWithRunnableActivityCount.containsKey(DcrGraph.HashDcrGraph(inputGraphCopy, null));
-            if (!stateSeen)
+            graph.UndoTo(frame.UndoMark);
+            graph.ExecuteActivity(activity);
+            _activitiesExecuted.increment();
+
+            // The activities asleep here, which are independent of the one executed, stay asleep in the next state
+            long[] sleep = new long[width];
+            long[] independent = independence[activity];
+            for (int w = 0; w < width; w++)
             {
-                // Register wish to continue
-                FindUniqueStatesInclRunnableActivityCountDepthFirst(inputGraphCopy);
+                sleep[w] = frame.Sleep[w] & independent[w];
+            }
+            // ... and the executed activity is covered for the remaining siblings
+            frame.Sleep[activity >>> 6] |= 1L << activity;
+
+            long[] storedSleep = new long[width];
+            if (seenStates.Get(graph.getState(), storedSleep) == SeenStateStore.ABSENT)
+            {
+                Claim(seenStates, graph.getState().Copy(), sleep);
+                PushWithSleepSet(stack, graph, sleep, width);
+                continue;
+            }
+
+            // Seen before: Only the activities asleep then, but not now, are left to explore
+            long[] awoken = new long[width];
+            boolean anyAwoken = false;
+            for (int w = 0; w < width; w++)
+            {
+                awoken[w] = storedSleep[w] & ~sleep[w];
+                anyAwoken |= awoken[w] != 0;
+                storedSleep[w] &= sleep[w];
+            }
+            if (anyAwoken)
+            {
+                seenStates.Put(graph.getState().Copy(), graph.getState().getRunnableCount(), storedSleep);
+                DepthFirstStack.Frame revisit = PushWithSleepSet(stack, graph, storedSleep, width);
+                revisit.Retain(awoken);
             }
         }
     }
+
+    // Pushes a frame for the graph's state, to execute its runnable activities that are not in the given sleep set
+    private static DepthFirstStack.Frame PushWithSleepSet(DepthFirstStack stack, ByteDcrGraph graph, long[] sleep, int width)
+    {
+        DepthFirstStack.Frame frame = stack.Push(graph);
+        if (frame.Sleep == null || frame.Sleep.length != width)
+        {
+            frame.Sleep = new long[width];
+        }
+        long[] awake = new long[width];
+        for (int w = 0; w < width; w++)
+        {
+            frame.Sleep[w] = sleep[w];
+            awake[w] = ~sleep[w];
+        }
+        frame.Retain(awake);
+        return frame;
+    }
+
+    /// <param name="payload">The payload-words to store with the state - null for none.</param>
+    /// <returns>Whether the state was not seen before, and is thus now to be explored by the caller</returns>
+    private boolean Claim(SeenStateStore seenStates, DcrState state, long[] payload)
+    {
+        if (!seenStates.PutIfAbsent(state, state.getRunnableCount(), payload)) return false;
+        _statesVisited.incrementAndGet();
+        return true;
+    }
 }
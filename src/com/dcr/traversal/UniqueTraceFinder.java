@@ -2,67 +2,343 @@ package com.dcr.traversal;
 
 import com.dcr.datamodels.Activity;
 import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
 import com.dcr.utils.ComparableList;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class UniqueTraceFinder {
 
     private HashSet<ComparableList<Integer>> _uniqueTraceSet = new HashSet<ComparableList<Integer>>();
     private HashSet<ComparableList<Integer>> _uniqueEarlyTerminationTraceSet = new HashSet<ComparableList<Integer>>();
-    private HashMap<List<Byte>, Boolean> _seenStates; // Stores each seen state along with whether or not it has lead to an accepting trace (accepting state)
-    private HashSet<ComparableList<Integer>> _compareTraceSet;
+    private SeenStateStore _seenStates; // Stores each seen state along with whether or not it has lead to an accepting trace (accepting state): 1 or 0
+    private HashSet<ComparableList<Integer>> _compareTraceSet; // Discovered on first use
     private HashSet<ComparableList<Integer>> _compareEarlyTerminationTraceSet;
     private ByteDcrGraph _compareByteGraph;
+    private TransitionSystem _compareTransitionSystem; // Only set when the language is enumerated from it
+    private LanguageEquivalenceChecker _equivalenceChecker; // Only set when comparing by automaton
+    private boolean _partialOrderReduction;
+    private TraversalBudget _budget = TraversalBudget.Unlimited();
+    private TraversalResult _referenceResult;
 
     private boolean _comparisonResult = true;
+    private final int _parallelism;
+    private final SeenStateStore.Factory _storeFactory;
 
     private List<String> ComparisonFailureTrace; // Failure-trace as list of Strings
     public List<String> getComparisonFailureTrace() {
         return ComparisonFailureTrace;
     }
+
+    private TraversalResult LastResult;
+    /// <summary>
+    /// Whether the last traversal (language discovery or comparison) completed, or was truncated by the budget.
+    /// </summary>
+    public TraversalResult getLastResult() { return LastResult; }
     
 
     public UniqueTraceFinder(ByteDcrGraph graph)
     {
+        this(graph, 1);
+    }
+
+    /// <param name="parallelism">The amount of worker threads comparing graphs by automaton (see setCompareByAutomaton) -
+    /// 1 compares on the calling thread. Trace-sets are always discovered and compared sequentially, so the answers do
+    /// not depend on it.</param>
+    public UniqueTraceFinder(ByteDcrGraph graph, int parallelism)
+    {
+        this(graph, parallelism, HeapSeenStateStore::new);
+    }
+
+    /// <param name="storeFactory">Creates the store of seen states for each language discovery.</param>
+    public UniqueTraceFinder(ByteDcrGraph graph, int parallelism, SeenStateStore.Factory storeFactory)
+    {
+        _parallelism = Math.max(1, parallelism);
+        _storeFactory = storeFactory;
         _compareByteGraph = graph.Copy();
-        SetUniqueTraces(graph);
+    }
+
+    /// <summary>
+    /// A finder enumerating the language of the graph from its compiled transition system - without executing any
+    /// activity - rather than by exploring the graph. The graph is still used for comparisons by automaton.
+    /// </summary>
+    /// <param name="transitionSystem">The complete transition system of the graph, as compiled by
+    /// TransitionSystem.Compile - a truncated one is rejected, as its language is not known.</param>
+    public UniqueTraceFinder(ByteDcrGraph graph, TransitionSystem transitionSystem)
+    {
+        this(graph);
+        if (transitionSystem.getCompileResult().isTruncated())
+        {
+            throw new IllegalArgumentException("The transition system was truncated while compiling: " + transitionSystem.getCompileResult());
+        }
+        _compareTransitionSystem = transitionSystem;
+    }
+
+    /// <summary>
+    /// A finder comparing with the same graph, sharing the language discovered by this one (discovering it first, if
+    /// needed) - for comparing on several threads at once, as a finder is not thread-safe itself.
+    /// </summary>
+    public UniqueTraceFinder Copy()
+    {
+        UniqueTraceFinder copy = new UniqueTraceFinder(_compareByteGraph, _parallelism, _storeFactory);
+        copy._compareTransitionSystem = _compareTransitionSystem;
+        copy.setBudget(_budget);
+        copy.setPartialOrderReduction(_partialOrderReduction);
+        if (_equivalenceChecker != null)
+        {
+            copy.setCompareByAutomaton(true);
+        }
+        else
+        {
+            // Read-only once discovered
+            copy._compareTraceSet = GetCompareTraceSet();
+            copy._compareEarlyTerminationTraceSet = _compareEarlyTerminationTraceSet;
+            copy._referenceResult = _referenceResult;
+        }
+        return copy;
+    }
+
+    /// <summary>
+    /// Whether CompareTraces decides on language equality through a LanguageEquivalenceChecker, exploring the
+    /// transition systems of both graphs instead of enumerating their traces - bounded by the amount of states
+    /// rather than the amount of traces, and without discovering the trace-set of the given graph at all. This is the
+    /// only comparison the parallelism applies to.
+    /// </summary>
+    public void setCompareByAutomaton(boolean compareByAutomaton)
+    {
+        _equivalenceChecker = compareByAutomaton ? new LanguageEquivalenceChecker(_compareByteGraph, _storeFactory, _parallelism) : null;
+        if (_equivalenceChecker != null)
+        {
+            _equivalenceChecker.setBudget(_budget);
+            _equivalenceChecker.setPartialOrderReduction(_partialOrderReduction);
+        }
+    }
+
+    /// <summary>
+    /// Whether comparisons by automaton skip redundant interleavings of independent activities - see
+    /// LanguageEquivalenceChecker.setPartialOrderReduction. Trace-sets are never reduced, as every interleaving is a
+    /// trace of its own.
+    /// </summary>
+    public void setPartialOrderReduction(boolean partialOrderReduction)
+    {
+        _partialOrderReduction = partialOrderReduction;
+        if (_equivalenceChecker != null) _equivalenceChecker.setPartialOrderReduction(partialOrderReduction);
+    }
+
+    /// <summary>
+    /// Bounds every traversal to come. A comparison cut short is undecided, and reported as a language change (without
+    /// a failure trace), so nothing is ever deemed equal unchecked. A language discovery cut short yields the traces
+    /// found so far - and makes every comparison against it undecided as well.
+    /// </summary>
+    public void setBudget(TraversalBudget budget)
+    {
+        _budget = budget;
+        if (_equivalenceChecker != null) _equivalenceChecker.setBudget(budget);
+    }
+
+    /// <summary>
+    /// Discovers the language of the graph given at construction now - within the budget - unless it is known already
+    /// or not needed (when comparing by automaton). Copies made afterwards share it, rather than the first one copied
+    /// discovering it on the thread it happens to run on.
+    /// </summary>
+    /// <returns>The result of the discovery made - null if none was needed</returns>
+    public TraversalResult DiscoverLanguage()
+    {
+        if (_equivalenceChecker != null || _compareTraceSet != null) return null;
+
+        GetCompareTraceSet();
+        return _referenceResult;
     }
 
     public boolean hasNoAcceptingTrace()
     {
-        return _compareTraceSet.isEmpty();
+        return GetCompareTraceSet().isEmpty();
     }
 
     public List<List<String>> getLanguageAsListOfTracesWithIds()
     {
-        return _compareTraceSet.stream().map(traceInts ->
+        return GetCompareTraceSet().stream().map(traceInts ->
                 traceInts.stream().map(index ->
                     _compareByteGraph.getIndexToActivityId().get(index)) // Look up Ids from indexes
                 .collect(Collectors.toList())).collect(Collectors.toList());
     }
 
+    /// <summary>
+    /// The language of the graph given at construction, discovered lazily: Each trace is only found once the iterator
+    /// is advanced to it, so the language is never held in memory as a whole (only the states seen so far are).
+    /// </summary>
+    public Iterator<List<String>> getLanguageIteratorWithIds()
+    {
+        return new LanguageIterator();
+    }
+
+    /// <summary>
+    /// The language of the graph given at construction as a lazy, sequential stream - see getLanguageIteratorWithIds.
+    /// Closing the stream releases the seen states of a traversal that was not run to its end.
+    /// </summary>
+    public Stream<List<String>> getLanguageStreamWithIds()
+    {
+        LanguageIterator iterator = new LanguageIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /// <summary>
+    /// Writes (at most limit) traces of the language of the graph given at construction to the stream as they are
+    /// discovered, one trace per line with the activity ids separated by commas. The stream is flushed, not closed.
+    /// </summary>
+    /// <returns>The amount of traces written</returns>
+    public long WriteLanguage(OutputStream out, long limit) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        long written = 0;
+        try (LanguageIterator iterator = new LanguageIterator())
+        {
+            while (written < limit && iterator.hasNext())
+            {
+                writer.write(String.join(",", iterator.next()));
+                writer.write('\n');
+                written++;
+            }
+        }
+        writer.flush();
+        return written;
+    }
+
+    public long WriteLanguage(File file, long limit) throws IOException
+    {
+        try (OutputStream out = new FileOutputStream(file))
+        {
+            return WriteLanguage(out, limit);
+        }
+    }
+
+    // Runs its own traversal, independent of (and not disturbing) the trace-sets used when comparing
+    private class LanguageIterator implements Iterator<List<String>>, AutoCloseable
+    {
+        private SeenStateStore _seenStates = _storeFactory.Create(_compareByteGraph.getState().getActivityCount(), false);
+        private final TraceEnumerator _traces = new TraceEnumerator(_compareByteGraph, _seenStates, null, _budget.Start());
+        private ComparableList<Integer> _next;
+
+        @Override
+        public boolean hasNext()
+        {
+            if (_next == null && _seenStates != null)
+            {
+                _next = _traces.Next();
+                if (_next == null) close(); // Fully discovered (or out of budget)
+            }
+            return _next != null;
+        }
+
+        @Override
+        public List<String> next()
+        {
+            if (!hasNext()) throw new NoSuchElementException();
+            List<String> res = _next.stream().map(index ->
+                    _compareByteGraph.getIndexToActivityId().get(index)) // Look up Ids from indexes
+                    .collect(Collectors.toList());
+            _next = null;
+            return res;
+        }
+
+        @Override
+        public void close()
+        {
+            if (_seenStates == null) return;
+            LastResult = _traces.Result();
+            _traces.Stop();
+            _seenStates.close();
+            _seenStates = null;
+        }
+    }
+
+    private HashSet<ComparableList<Integer>> GetCompareTraceSet()
+    {
+        if (_compareTraceSet == null)
+        {
+            // Keep the outcome of any comparison made by automaton before the trace-set was needed
+            List<String> failureTrace = ComparisonFailureTrace;
+            if (_compareTransitionSystem != null)
+            {
+                SetUniqueTraces(_compareTransitionSystem);
+            }
+            else
+            {
+                SetUniqueTraces(_compareByteGraph);
+            }
+            ComparisonFailureTrace = failureTrace;
+        }
+        return _compareTraceSet;
+    }
+
     private HashSet<ComparableList<Integer>> SetUniqueTraces(ByteDcrGraph graph)
     {
         ResetValues();
 
-        List<List<Byte>> initiallySeenStates = new ArrayList<>();
-        initiallySeenStates.add(graph.getState());
-        FindUniqueTraces(graph, new ComparableList<Integer>(), initiallySeenStates);
+        try (SeenStateStore seenStates = _storeFactory.Create(graph.getState().getActivityCount(), false))
+        {
+            _seenStates = seenStates;
+            FindUniqueTraces(graph);
+        }
         _compareTraceSet = _uniqueTraceSet;
         _compareEarlyTerminationTraceSet = _uniqueEarlyTerminationTraceSet;
+        _referenceResult = LastResult;
 
         return _uniqueTraceSet;
     }
 
+    private void SetUniqueTraces(TransitionSystem transitionSystem)
+    {
+        ResetValues();
+
+        transitionSystem.ForEachUniqueTrace(
+                trace -> _uniqueTraceSet.add(ToTrace(trace)),
+                trace -> _uniqueEarlyTerminationTraceSet.add(ToTrace(trace)));
+        _compareTraceSet = _uniqueTraceSet;
+        _compareEarlyTerminationTraceSet = _uniqueEarlyTerminationTraceSet;
+        LastResult = transitionSystem.getCompileResult();
+        _referenceResult = LastResult;
+    }
+
+    private static ComparableList<Integer> ToTrace(int[] activities)
+    {
+        ComparableList<Integer> res = new ComparableList<>();
+        for (int activity : activities)
+        {
+            res.add(activity);
+        }
+        return res;
+    }
+
     public boolean CompareTraces(ByteDcrGraph graph)
     {
+        if (_equivalenceChecker != null)
+        {
+            return CompareByAutomaton(graph);
+        }
+
+        GetCompareTraceSet();
         ResetValues();
+        if (_referenceResult.isTruncated())
+        {
+            // Nothing to compare with
+            LastResult = _referenceResult;
+            _comparisonResult = false;
+            return false;
+        }
 
-        List<List<Byte>> initiallySeenStates = new ArrayList<>();
-        initiallySeenStates.add(graph.getState());
-        FindUniqueTraces(graph, new ComparableList<Integer>(), initiallySeenStates);
+        try (SeenStateStore seenStates = _storeFactory.Create(graph.getState().getActivityCount(), false))
+        {
+            _seenStates = seenStates;
+            FindUniqueTraces(graph);
+        }
 
             /* NOTE: State-space comparison is NOT a valid comparison-factor, since **different** graphs 
                may represent the same graph language. Therefore, the permitted language serves as the
@@ -73,95 +349,79 @@ public class UniqueTraceFinder {
                 && _compareEarlyTerminationTraceSet.equals(_uniqueEarlyTerminationTraceSet); // Set comparison, aka "containsAll" both ways
     }
 
+    /// <summary>
+    /// Whether the trace (as activity ids) is accepted by exactly one of the graph given at construction and the given
+    /// graph - so that the given graph surely has another language, without comparing. Only when comparing by
+    /// automaton, whose failure traces are such traces: Otherwise the trace-sets compared are not the languages
+    /// themselves, and this is always false.
+    /// </summary>
+    public boolean IsCounterexample(List<String> trace, ByteDcrGraph graph)
+    {
+        if (_equivalenceChecker == null || trace == null) return false;
+
+        return Accepts(_compareByteGraph, trace) != Accepts(graph, trace);
+    }
+
+    private static boolean Accepts(ByteDcrGraph inputGraph, List<String> trace)
+    {
+        ByteDcrGraph graph = inputGraph.Copy();
+        for (String id : trace)
+        {
+            Integer activity = graph.getActivityIdToIndex().get(id);
+            if (activity == null || !graph.getState().CanRun(activity)) return false;
+            graph.ExecuteActivity(activity);
+        }
+        return graph.getState().IsFinalState();
+    }
+
+    private boolean CompareByAutomaton(ByteDcrGraph graph)
+    {
+        ResetValues();
+        _comparisonResult = _equivalenceChecker.IsEquivalent(graph);
+        LastResult = _equivalenceChecker.getLastResult();
+        if (_equivalenceChecker.getCounterexample() != null)
+        {
+            ComparisonFailureTrace = _equivalenceChecker.getCounterexample().stream().map(x -> graph.getIndexToActivityId().get(x)).collect(Collectors.toList());
+        }
+        return _comparisonResult;
+    }
+
     private void ResetValues()
     {
         _comparisonResult = true;
         ComparisonFailureTrace = null;
         _uniqueTraceSet = new HashSet<ComparableList<Integer>>();
         _uniqueEarlyTerminationTraceSet = new HashSet<ComparableList<Integer>>();
-
-        _seenStates = new HashMap<List<Byte>, Boolean>();
     }
 
     /// <summary>
     /// Private function used to discover the full language of a DCR graph in the shape of its memory-optimized ByteDcrGraph format.
+    /// When comparing, the discovery stops at the first accepting trace which is not in the language compared with.
     /// </summary>
-    /// <param name="inputGraph">The ByteDcrGraph for which we wish to discover the language.</param>
-    /// <param name="currentTrace">A comparable list of integers, signifying the activity-IDs given in
-    /// the 'inputGraph' in an order signifying a trace of activity-executions.</param>
-    /// <param name="statesSeenInTrace">A list of states that are meant to be updated as 'leading to an accepting trace/state later on'
-    /// if the state is not a final state itself. When a state is learned to have lead to such an accepting state later on, we stop passing
-    /// it around (removing them from the list to save memory).</param>
-    private void FindUniqueTraces(ByteDcrGraph inputGraph, ComparableList<Integer> currentTrace, List<List<Byte>> statesSeenInTrace)
-    {
-        //compare trace length with desired depth
-        for (Integer activity : inputGraph.GetRunnableIndexes())
-        {
-            ByteDcrGraph inputGraphCopy = inputGraph.Copy();
-            ComparableList<Integer> currentTraceCopy = new ComparableList<>(currentTrace);
-
-            // Execute and add event to trace
-            inputGraphCopy.ExecuteActivity(activity);
-            currentTraceCopy.add(activity);
-
-            boolean isFinalState = ByteDcrGraph.IsFinalState(inputGraphCopy.getState());
-            if (isFinalState)
+    /// <param name="inputGraph">The ByteDcrGraph for which we wish to discover the language (left unaltered).</param>
+    private void FindUniqueTraces(ByteDcrGraph inputGraph)
+    {
+        TraceEnumerator traces = new TraceEnumerator(inputGraph, _seenStates, _uniqueEarlyTerminationTraceSet::add, _budget.Start());
+        for (ComparableList<Integer> trace = traces.Next(); trace != null; trace = traces.Next())
+        {
+            // Store this trace as unique, accepting trace
+            _uniqueTraceSet.add(trace);
+
+            if (_compareTraceSet != null && !_compareTraceSet.contains(trace))
             {
-                // Store this trace as unique, accepting trace
-                _uniqueTraceSet.add(currentTraceCopy);
-
-                // Store the fact that all the states seen until here, lead to some accepting trace:
-                // NOTE: **Intended**: Only set true for the states PRIOR to the change we've just seen (by activity execution)
-                // NOTE: ^--> We handle the (non-)occurrence of whether the new state reached was seen before below
-                for (List<Byte> state : statesSeenInTrace)
-                {
-                    _seenStates.put(state, true); // The states seen prior in trace all lead to a final state via the language
-                }
-                // Optimization: We can disregard holding all of these states for this trace now, because we already said they all lead to acceptance
-                statesSeenInTrace.clear(); // Clears across the remaining DFS branches too - if one path leads to acceptance, we don't need to re-update for every other path to acceptance too
-
-                if(_compareTraceSet != null &&
-                        (!_compareTraceSet.contains(currentTraceCopy)))
-                {
-                    _comparisonResult = false;
-                    ComparisonFailureTrace = currentTraceCopy.stream().map(x -> inputGraphCopy.getIndexToActivityId().get(x)).collect(Collectors.toList());
-                    return;
-                }
+                _comparisonResult = false;
+                ComparisonFailureTrace = trace.stream().map(x -> inputGraph.getIndexToActivityId().get(x)).collect(Collectors.toList());
+                // The comparison has failed - no need to explore any further
+                LastResult = traces.Result();
+                traces.Stop();
+                return;
             }
+        }
 
-            // If we have not seen the state before (successfully ADD it to the state)
-            Boolean leadsToAcceptingTrace = _seenStates.get(inputGraphCopy.getState());
-            if (leadsToAcceptingTrace != null) { // the map already contains the given state (seen before):
-
-                /* ASSUMPTION: When checking for previously having seen our newly reached state,
-                 * the "leadsToAcceptingState" value is fully updated and dependable on due to D-F-S. */
-                if (leadsToAcceptingTrace) {
-                    // Add to collection of traces that reached previously seen states through different, alternate paths
-                    _uniqueEarlyTerminationTraceSet.add(currentTraceCopy);
-
-                    /* If we found an alternate path to a previously seen state (which leads to an accepting trace),
-                     * that the original graph semantics trace-finding could not: We have observed a language change */
-                    if (_compareEarlyTerminationTraceSet != null &&
-                            !_compareEarlyTerminationTraceSet.contains(currentTraceCopy))
-                    {
-                        // TODO: Terminate early allowed here? We reached a seen state in a way that the original trace-finding did not
-                    }
-                }
-            }
-            else { // this is the first time we see this state
-                /* Perform the first observation of this newly reached state along with the local knowledge of whether it leads to a final state,
-                 * determined by whether it itself is one such final state */
-                _seenStates.put(inputGraphCopy.getState(), isFinalState);
-
-                // Add newly reached state, because it's not a final state itself, so we will have to update later if we reach a final state later
-                List<List<Byte>> statesSeenInTraceCopy = new ArrayList<>(statesSeenInTrace);
-                statesSeenInTraceCopy.add(inputGraphCopy.getState());
-
-                // RECURSION:
-                /* Optimization-note: We pass on the original, mutable list of states seen prior in trace to
-                 * allow future accepting states found to optimize the list through updates even further backwards in the DFS flow. */
-                FindUniqueTraces(inputGraphCopy, currentTraceCopy, isFinalState ? statesSeenInTrace : statesSeenInTraceCopy);
-            }
+        LastResult = traces.Result();
+        if (LastResult.isTruncated())
+        {
+            _comparisonResult = false; // Undecided
         }
     }
 }
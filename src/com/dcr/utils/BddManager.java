@@ -0,0 +1,236 @@
+package com.dcr.utils;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/// <summary>
+/// Minimal reduced ordered binary decision diagram (BDD) package: Nodes are ints indexing into flat arrays, shared
+/// through a unique table (so equal functions are equal ints), with a direct-mapped cache for the operations.
+/// Variables are ordered by index. Nodes are never freed - a manager is meant to live for a single analysis.
+/// </summary>
+public class BddManager {
+
+    public static final int FALSE = 0;
+    public static final int TRUE = 1;
+
+    private static final int OpAnd = 0, OpOr = 1, OpNot = 2, OpExists = 3;
+
+    private final int VarCount;
+    public int getVarCount() { return VarCount; }
+
+    // Node n tests variable _var[n]: _high[n] if set, _low[n] if not. The terminals have variable VarCount.
+    private int[] _var = new int[1 << 10];
+    private int[] _low = new int[1 << 10];
+    private int[] _high = new int[1 << 10];
+    private int _nodeCount;
+    public int getNodeCount() { return _nodeCount; }
+
+    // Open-addressing unique table of node ids + 1 (0 = empty)
+    private int[] _unique = new int[1 << 11];
+
+    // Direct-mapped operation cache
+    private int[] _cacheOp, _cacheA, _cacheB, _cacheResult;
+
+    public BddManager(int varCount)
+    {
+        VarCount = varCount;
+        _var[FALSE] = varCount;
+        _var[TRUE] = varCount;
+        _nodeCount = 2;
+        ResizeCache(1 << 12);
+    }
+
+    public int Var(int v)
+    {
+        return MakeNode(v, FALSE, TRUE);
+    }
+
+    public int NVar(int v)
+    {
+        return MakeNode(v, TRUE, FALSE);
+    }
+
+    /// <summary>
+    /// The conjunction of the given variables, as used by Exists.
+    /// </summary>
+    public int Cube(int[] vars)
+    {
+        int[] sorted = vars.clone();
+        Arrays.sort(sorted);
+        int res = TRUE;
+        for (int i = sorted.length - 1; i >= 0; i--)
+        {
+            res = MakeNode(sorted[i], FALSE, res);
+        }
+        return res;
+    }
+
+    public int Not(int f)
+    {
+        if (f == FALSE) return TRUE;
+        if (f == TRUE) return FALSE;
+
+        int cached = Cached(OpNot, f, 0);
+        if (cached >= 0) return cached;
+        int res = MakeNode(_var[f], Not(_low[f]), Not(_high[f]));
+        Cache(OpNot, f, 0, res);
+        return res;
+    }
+
+    public int And(int f, int g)
+    {
+        if (f == FALSE || g == FALSE) return FALSE;
+        if (f == TRUE) return g;
+        if (g == TRUE || f == g) return f;
+        return Apply(OpAnd, Math.min(f, g), Math.max(f, g));
+    }
+
+    public int Or(int f, int g)
+    {
+        if (f == TRUE || g == TRUE) return TRUE;
+        if (f == FALSE) return g;
+        if (g == FALSE || f == g) return f;
+        return Apply(OpOr, Math.min(f, g), Math.max(f, g));
+    }
+
+    private int Apply(int op, int f, int g)
+    {
+        int cached = Cached(op, f, g);
+        if (cached >= 0) return cached;
+
+        int v = Math.min(_var[f], _var[g]);
+        int fLow = _var[f] == v ? _low[f] : f, fHigh = _var[f] == v ? _high[f] : f;
+        int gLow = _var[g] == v ? _low[g] : g, gHigh = _var[g] == v ? _high[g] : g;
+        int res = op == OpAnd
+                ? MakeNode(v, And(fLow, gLow), And(fHigh, gHigh))
+                : MakeNode(v, Or(fLow, gLow), Or(fHigh, gHigh));
+        Cache(op, f, g, res);
+        return res;
+    }
+
+    /// <summary>
+    /// Existential quantification of the variables of the given cube (see Cube) - the function is true for an
+    /// assignment of the remaining variables if it is true for some assignment of the quantified ones.
+    /// </summary>
+    public int Exists(int f, int cube)
+    {
+        if (f == FALSE || f == TRUE || cube == TRUE) return f;
+        // Skip quantified variables that f does not depend on
+        while (cube != TRUE && _var[cube] < _var[f]) cube = _high[cube];
+        if (cube == TRUE) return f;
+
+        int cached = Cached(OpExists, f, cube);
+        if (cached >= 0) return cached;
+
+        int res;
+        if (_var[f] == _var[cube])
+        {
+            res = Or(Exists(_low[f], _high[cube]), Exists(_high[f], _high[cube]));
+        }
+        else
+        {
+            res = MakeNode(_var[f], Exists(_low[f], cube), Exists(_high[f], cube));
+        }
+        Cache(OpExists, f, cube, res);
+        return res;
+    }
+
+    /// <summary>
+    /// The amount of assignments to all VarCount variables for which f is true.
+    /// </summary>
+    public BigInteger SatCount(int f)
+    {
+        return SatCount(f, new HashMap<>()).shiftLeft(_var[f]);
+    }
+
+    // Assignments to the variables from _var[f] on
+    private BigInteger SatCount(int f, HashMap<Integer, BigInteger> memo)
+    {
+        if (f == FALSE) return BigInteger.ZERO;
+        if (f == TRUE) return BigInteger.ONE;
+        BigInteger res = memo.get(f);
+        if (res != null) return res;
+
+        res = SatCount(_low[f], memo).shiftLeft(_var[_low[f]] - _var[f] - 1)
+                .add(SatCount(_high[f], memo).shiftLeft(_var[_high[f]] - _var[f] - 1));
+        memo.put(f, res);
+        return res;
+    }
+
+    private int MakeNode(int v, int low, int high)
+    {
+        if (low == high) return low;
+
+        int mask = _unique.length - 1;
+        for (int i = Hash(v, low, high) & mask; ; i = (i + 1) & mask)
+        {
+            int node = _unique[i] - 1;
+            if (node < 0) break;
+            if (_var[node] == v && _low[node] == low && _high[node] == high) return node;
+        }
+
+        if (_nodeCount == _var.length)
+        {
+            _var = Arrays.copyOf(_var, _nodeCount * 2);
+            _low = Arrays.copyOf(_low, _nodeCount * 2);
+            _high = Arrays.copyOf(_high, _nodeCount * 2);
+        }
+        int node = _nodeCount++;
+        _var[node] = v;
+        _low[node] = low;
+        _high[node] = high;
+        InsertUnique(node);
+
+        // Keep the unique table at most half full, and the cache in proportion to it
+        if (_nodeCount * 2 > _unique.length)
+        {
+            _unique = new int[_unique.length * 2];
+            for (int n = 2; n < _nodeCount; n++)
+            {
+                InsertUnique(n);
+            }
+            ResizeCache(_unique.length * 2);
+        }
+        return node;
+    }
+
+    private void InsertUnique(int node)
+    {
+        int mask = _unique.length - 1;
+        int i = Hash(_var[node], _low[node], _high[node]) & mask;
+        while (_unique[i] != 0) i = (i + 1) & mask;
+        _unique[i] = node + 1;
+    }
+
+    private static int Hash(int a, int b, int c)
+    {
+        int h = a * 0x9E3779B1 + b;
+        h = h * 0x85EBCA6B + c;
+        return h ^ (h >>> 15);
+    }
+
+    private void ResizeCache(int size)
+    {
+        _cacheOp = new int[size];
+        Arrays.fill(_cacheOp, -1);
+        _cacheA = new int[size];
+        _cacheB = new int[size];
+        _cacheResult = new int[size];
+    }
+
+    private int Cached(int op, int a, int b)
+    {
+        int i = Hash(op, a, b) & (_cacheOp.length - 1);
+        return _cacheOp[i] == op && _cacheA[i] == a && _cacheB[i] == b ? _cacheResult[i] : -1;
+    }
+
+    private void Cache(int op, int a, int b, int result)
+    {
+        int i = Hash(op, a, b) & (_cacheOp.length - 1);
+        _cacheOp[i] = op;
+        _cacheA[i] = a;
+        _cacheB[i] = b;
+        _cacheResult[i] = result;
+    }
+}
@@ -0,0 +1,159 @@
+package com.dcr.datamodels;
+
+import com.dcr.statistics.Confidence;
+import com.dcr.statistics.Threshold;
+import com.dcr.traversal.TransitionSystem;
+import com.dcr.utils.RandomizedCheck;
+
+import java.util.*;
+
+/// <summary>
+/// Checks ByteDcrGraph.WithoutRelation against compiling the graph anew without the relation, as candidates were made
+/// before: For every relation of the graph of each seed, and for a chain of removals of all its relations in random
+/// order, the masked graph must have the relations, state and reachable state-space of the compiled one. Likewise, for
+/// every activity, RemoveActivity must give the graph compiled with the activity excluded, cleared and no longer
+/// included by any activity, as activities were removed before - keeping the responses to it, unless asked to fix its
+/// pending-status, when the responses must be gone as well.
+/// </summary>
+public class MaskingCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("MaskingCheck");
+        int seeds = RandomizedCheck.Seeds(args, 200);
+
+        for (int seed = 0; seed < seeds; seed++)
+        {
+            DcrGraph graph = RandomizedCheck.GraphFor(seed);
+            ByteDcrGraph compiled = new ByteDcrGraph(graph, null);
+
+            List<Relation> relations = Relations(graph);
+            for (Relation relation : relations)
+            {
+                DcrGraph reference = graph.Copy();
+                Remove(reference, relation);
+                Check(check, "seed " + seed + " without " + relation, new ByteDcrGraph(reference, compiled), Mask(compiled, relation));
+            }
+
+            // The masks of a chain of removals are made on top of each other, as by the remover
+            Collections.shuffle(relations, new Random(seed));
+            DcrGraph reference = graph.Copy();
+            ByteDcrGraph masked = compiled;
+            for (Relation relation : relations)
+            {
+                Remove(reference, relation);
+                masked = Mask(masked, relation);
+                Check(check, "seed " + seed + " up to " + relation, new ByteDcrGraph(reference, compiled), masked);
+            }
+
+            for (Activity activity : graph.getActivities())
+            {
+                for (boolean fixPending : new boolean[] { false, true })
+                {
+                    ByteDcrGraph removed = compiled.Copy();
+                    removed.RemoveActivity(activity.getId(), fixPending);
+                    Check(check, "seed " + seed + " without " + activity.getId() + (fixPending ? ", fixing its pending-status" : ""),
+                            new ByteDcrGraph(Removed(graph, activity.getId(), fixPending), null), removed);
+                }
+            }
+        }
+
+        check.Finish("");
+    }
+
+    private static void Check(RandomizedCheck check, String at, ByteDcrGraph expected, ByteDcrGraph actual)
+    {
+        check.Check(actual.getState().equals(expected.getState()), at + ": the state differs");
+        int activityCount = expected.getState().getActivityCount();
+        boolean sameRelations = true;
+        for (int source = 0; source < activityCount; source++)
+        {
+            for (int target = 0; target < activityCount; target++)
+            {
+                sameRelations &= actual.HasInclusion(source, target) == expected.HasInclusion(source, target)
+                        && actual.HasExclusion(source, target) == expected.HasExclusion(source, target)
+                        && actual.HasResponse(source, target) == expected.HasResponse(source, target)
+                        && actual.HasCondition(source, target) == expected.HasCondition(source, target);
+            }
+        }
+        check.Check(sameRelations, at + ": the relations differ");
+        TransitionSystem expectedSystem = TransitionSystem.Compile(expected), actualSystem = TransitionSystem.Compile(actual);
+        check.Check(actualSystem.getStateCount() == expectedSystem.getStateCount() && actualSystem.getTransitionCount() == expectedSystem.getTransitionCount(),
+                at + ": the state-space differs");
+    }
+
+    // Every relation of the graph, an include/exclude typed by its confidence as the ByteDcrGraph constructor does
+    private static List<Relation> Relations(DcrGraph graph)
+    {
+        List<Relation> res = new ArrayList<>();
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : graph.getIncludeExcludes().entrySet())
+        {
+            for (Map.Entry<Activity, Confidence> target : source.getValue().entrySet())
+            {
+                RelationType type = target.getValue().get() > Threshold.getValue() ? RelationType.Inclusion : RelationType.Exclusion;
+                res.add(new Relation(type, source.getKey(), target.getKey()));
+            }
+        }
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : graph.getResponses().entrySet())
+        {
+            for (Activity target : source.getValue().keySet())
+            {
+                res.add(new Relation(RelationType.Response, source.getKey(), target));
+            }
+        }
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : graph.getConditions().entrySet())
+        {
+            for (Activity target : source.getValue().keySet())
+            {
+                res.add(new Relation(RelationType.Condition, source.getKey(), target));
+            }
+        }
+        // Sorted, so that the shuffled chain depends on the seed alone
+        res.sort(Comparator.comparing(Relation::toString));
+        return res;
+    }
+
+    private static void Remove(DcrGraph graph, Relation relation) throws Exception
+    {
+        String source = relation.getSource().getId(), target = relation.getTarget().getId();
+        switch (relation.getType())
+        {
+            case Inclusion:
+            case Exclusion:
+                graph.RemoveIncludeExclude(source, target);
+                break;
+            case Response:
+                graph.getResponses().get(graph.getActivity(source)).remove(graph.getActivity(target));
+                break;
+            case Condition:
+                graph.RemoveCondition(source, target);
+                break;
+        }
+    }
+
+    // The graph with the activity excluded and cleared, and without the includes - and if fixing its pending-status,
+    // the responses - to it
+    private static DcrGraph Removed(DcrGraph graph, String id, boolean fixPending) throws Exception
+    {
+        DcrGraph res = graph.Copy();
+        Activity activity = res.getActivity(id);
+        activity.setIncluded(false);
+        activity.setPending(false);
+        activity.setExecuted(false);
+        for (Relation relation : Relations(res))
+        {
+            if (!relation.getTarget().getId().equals(id)) continue;
+            if (relation.getType() == RelationType.Inclusion || fixPending && relation.getType() == RelationType.Response)
+            {
+                Remove(res, relation);
+            }
+        }
+        return res;
+    }
+
+    private static ByteDcrGraph Mask(ByteDcrGraph graph, Relation relation)
+    {
+        return graph.WithoutRelation(relation.getType(),
+                graph.getActivityIdToIndex().get(relation.getSource().getId()), graph.getActivityIdToIndex().get(relation.getTarget().getId()));
+    }
+}
@@ -0,0 +1,89 @@
+package com.dcr.qualitydimensions;
+
+import com.dcr.datamodels.*;
+import com.dcr.traversal.TransitionSystem;
+import com.dcr.traversal.TraversalBudget;
+import com.dcr.traversal.UniqueStateFinder;
+import com.dcr.utils.RandomizedCheck;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/// <summary>
+/// Checks the precision computed on the compiled TransitionSystem against the former computation, which replayed the
+/// log on copies of the DcrGraph and hashed its state before and after every event. A truncated system must be refused.
+/// </summary>
+public class PrecisionCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("PrecisionCheck");
+        int seeds = RandomizedCheck.Seeds(args, 200);
+
+        for (int seed = 0; seed < seeds; seed++)
+        {
+            Log log = RandomizedCheck.LogFor(seed);
+            DcrGraph graph = RandomizedCheck.GraphFor(seed);
+            ByteDcrGraph byteGraph = new ByteDcrGraph(graph, null);
+
+            double expected = ReplayPrecision(log, graph);
+            double actual = QualityDimensionsRetriever.GetPrecision(log, TransitionSystem.Compile(byteGraph));
+            check.Check(Math.abs(actual - expected) < 1e-9, "seed " + seed + ": precision " + actual + ", expected " + expected);
+
+            TraversalBudget budget = TraversalBudget.Unlimited();
+            budget.setMaxStates(2);
+            UniqueStateFinder bounded = new UniqueStateFinder();
+            bounded.setBudget(budget);
+            TransitionSystem truncated = bounded.CompileTransitionSystem(byteGraph);
+            if (truncated.getCompileResult().isTruncated())
+            {
+                boolean refused = false;
+                try
+                {
+                    QualityDimensionsRetriever.GetPrecision(log, truncated);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    refused = true;
+                }
+                check.Check(refused, "seed " + seed + ": the precision of a truncated system was computed");
+            }
+        }
+
+        check.Finish("");
+    }
+
+    // The computation before the graph was compiled: Every event is executed on a copy of the graph
+    static double ReplayPrecision(Log log, DcrGraph graph)
+    {
+        HashMap<DcrState, Integer> runnableCountOfSeenStates = new HashMap<>();
+        HashMap<DcrState, HashSet<String>> activitiesExecutedInStates = new HashMap<>();
+        runnableCountOfSeenStates.put(DcrGraph.HashDcrGraph(graph, null), graph.GetRunnableActivities().size());
+
+        for (LogTrace logTrace : log.getTraces())
+        {
+            DcrGraph currentGraph = graph.Copy();
+            currentGraph.setRunning(true);
+            for (LogEvent logEvent : logTrace.getEvents())
+            {
+                try
+                {
+                    DcrState before = DcrGraph.HashDcrGraph(currentGraph, null);
+                    if (currentGraph.Execute(currentGraph.getActivity(logEvent.getIdOfActivity())))
+                    {
+                        activitiesExecutedInStates.computeIfAbsent(before, state -> new HashSet<>()).add(logEvent.getIdOfActivity());
+                        runnableCountOfSeenStates.putIfAbsent(DcrGraph.HashDcrGraph(currentGraph, null), currentGraph.GetRunnableActivities().size());
+                    }
+                }
+                catch (Exception e)
+                {
+                    // No such activity exists, ignore
+                }
+            }
+        }
+
+        int couldHaveBeenExecuted = runnableCountOfSeenStates.values().stream().mapToInt(x -> x).sum();
+        int executed = activitiesExecutedInStates.values().stream().mapToInt(HashSet::size).sum();
+        return couldHaveBeenExecuted == 0 ? 100.0 : ((double) executed / couldHaveBeenExecuted) * 100.0;
+    }
+}
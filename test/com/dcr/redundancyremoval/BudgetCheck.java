@@ -0,0 +1,80 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.DcrGraph;
+import com.dcr.utils.RandomizedCheck;
+
+/// <summary>
+/// Checks that a budget only ever leaves candidates undecided: On the graph of each seed, a budget too large to run out
+/// must give the unbounded output, and no budget spent leaves any candidate unchecked. Under work budgets that do run
+/// out, the output must keep the language - exactly, with candidates checked incrementally or by automaton with sleep
+/// sets, one at a time or in groups - a budget of nothing must compare nothing, and a run that leaves no candidate
+/// unchecked must give the unbounded output.
+/// </summary>
+public class BudgetCheck
+{
+    private static final long[] StateBudgets = { 0, 5, 20, 50, 100, 200 };
+
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("BudgetCheck");
+        int seeds = RandomizedCheck.Seeds(args, 200);
+        int incomplete = 0;
+
+        for (int mode = 0; mode < 5; mode++)
+        {
+            for (int seed = 0; seed < seeds; seed++)
+            {
+                DcrGraph graph = RandomizedCheck.GraphFor(seed);
+                String at = "seed " + seed + " in mode " + mode + ": ";
+
+                RedundancyRemover unbounded = Remover(mode);
+                String expected = RemovalLanguage.Describe(unbounded, unbounded.RemoveRedundancy(graph));
+                check.Check(unbounded.isComplete(), at + unbounded.getUncheckedCandidates() + " candidates unchecked without a budget");
+
+                RedundancyRemover ample = Remover(mode);
+                ample.setMaxStatesVisited(Long.MAX_VALUE / 2);
+                ample.setMaxMillis(Long.MAX_VALUE / 2);
+                check.Check(RemovalLanguage.Describe(ample, ample.RemoveRedundancy(graph)).equals(expected) && ample.isComplete(),
+                        at + "an ample budget changes the output");
+
+                for (long budget : StateBudgets)
+                {
+                    RedundancyRemover bounded = Remover(mode);
+                    bounded.setMaxStatesVisited(budget);
+                    DcrGraph output = bounded.RemoveRedundancy(graph);
+                    if (!bounded.isComplete()) incomplete++;
+                    check.Check(bounded.getStatesVisited() <= budget, at + bounded.getStatesVisited() + " states visited within " + budget);
+                    // Every candidate the budget did not leave unchecked was decided as without a budget
+                    check.Check(!bounded.isComplete() || RemovalLanguage.Describe(bounded, output).equals(expected),
+                            at + "within " + budget + " states, no candidate is reported unchecked, but the output differs");
+                    if (budget == 0)
+                    {
+                        check.Check(bounded.getComparisonsMade() == 0, at + bounded.getComparisonsMade() + " comparisons made without any budget");
+                    }
+                    if (mode == 1 || mode == 3)
+                    {
+                        check.Check(RemovalLanguage.IsKeptByRelationRemovals(graph, output), at + "the relations removed within " + budget + " states change the language");
+                    }
+                    else if (mode == 2 || mode == 4)
+                    {
+                        check.Check(RemovalLanguage.IsKept(graph, output), at + "the removal within " + budget + " states changes the language");
+                    }
+                }
+            }
+        }
+
+        check.Finish("incomplete=" + incomplete);
+    }
+
+    // Comparing trace-sets, checking relations incrementally, or comparing by automaton with sleep sets - and the latter
+    // two with group testing
+    private static RedundancyRemover Remover(int mode)
+    {
+        RedundancyRemover remover = new RedundancyRemover();
+        if (mode == 1 || mode == 3) remover.setIncrementalCheck(true);
+        if (mode == 2 || mode == 4) remover.setPartialOrderReduction(true);
+        if (mode >= 3) remover.setGroupTesting(true);
+        if (mode == 4) remover.setImpactOrdering(true);
+        return remover;
+    }
+}
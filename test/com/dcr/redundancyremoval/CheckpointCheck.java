@@ -0,0 +1,90 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.DcrGraph;
+import com.dcr.utils.RandomizedCheck;
+
+import java.io.File;
+
+/// <summary>
+/// Checks that resuming from a checkpoint yields the graph of an uninterrupted run: On the graph of each seed, a run
+/// is stopped by work budgets of 0 to 300 states, with its progress written at every step, and resumed without a
+/// budget - sequentially, with group testing, with 4 workers, with incremental checks, with impact ordering (alone and
+/// with group testing, which then starts with groups of proven candidates) and with sleep sets. Resuming from the
+/// checkpoint a finished run wrote once done must give its result as well. A resumed run must not compare again what
+/// was decided before the checkpoint - except, with group testing, the group being bisected when the budget ran out.
+/// A negative checkpoint interval must be rejected.
+/// </summary>
+public class CheckpointCheck
+{
+    private static final long[] StateBudgets = { 0, 5, 20, 50, 100, 300 };
+
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("CheckpointCheck");
+        int seeds = RandomizedCheck.Seeds(args, 60);
+        File finished = File.createTempFile("finished", ".checkpoint");
+        File interrupted = File.createTempFile("interrupted", ".checkpoint");
+        finished.deleteOnExit();
+        interrupted.deleteOnExit();
+
+        for (String mode : new String[] { "sequential", "group", "parallel", "incremental", "ordered", "group ordered", "sleep sets" })
+        {
+            for (int seed = 0; seed < seeds; seed++)
+            {
+                DcrGraph graph = RandomizedCheck.GraphFor(seed);
+                String at = "seed " + seed + " " + mode + ": ";
+
+                RedundancyRemover uninterrupted = Remover(mode);
+                // Writing only once done
+                uninterrupted.setCheckpoint(finished, Long.MAX_VALUE);
+                String expected = RemovalLanguage.Describe(uninterrupted, uninterrupted.RemoveRedundancy(graph));
+                RedundancyRemover resumedFinished = new RedundancyRemover();
+                check.Check(RemovalLanguage.Describe(resumedFinished, resumedFinished.Resume(finished)).equals(expected),
+                        at + "resuming a finished run differs");
+
+                for (long budget : StateBudgets)
+                {
+                    RedundancyRemover stopped = Remover(mode);
+                    stopped.setCheckpoint(interrupted, 0);
+                    stopped.setMaxStatesVisited(budget);
+                    stopped.RemoveRedundancy(graph);
+
+                    // The settings are restored from the checkpoint, but the parallelism is the resuming remover's
+                    RedundancyRemover resumed = new RedundancyRemover(mode.equals("parallel") ? 4 : 1);
+                    String actual = RemovalLanguage.Describe(resumed, resumed.Resume(interrupted));
+                    check.Check(actual.equals(expected), at + "resuming after " + budget + " states, with " + stopped.getUncheckedCandidates()
+                            + " candidates unchecked, differs:\n  expected " + expected + "\n  got      " + actual);
+                    if (!mode.startsWith("group"))
+                    {
+                        // Only the comparison the budget cut short is made again
+                        check.Check(resumed.getComparisonsMade() <= uninterrupted.getComparisonsMade() + 1, at + "resuming after " + budget + " states made "
+                                + resumed.getComparisonsMade() + " comparisons in all, the uninterrupted run " + uninterrupted.getComparisonsMade());
+                    }
+                }
+            }
+        }
+
+        boolean rejected = false;
+        try
+        {
+            new RedundancyRemover().setCheckpoint(interrupted, -1);
+        }
+        catch (IllegalArgumentException e)
+        {
+            rejected = true;
+        }
+        check.Check(rejected, "a negative checkpoint interval was accepted");
+
+        check.Finish("");
+    }
+
+    private static RedundancyRemover Remover(String mode)
+    {
+        RedundancyRemover remover = new RedundancyRemover(mode.equals("parallel") ? 4 : 1);
+        if (mode.startsWith("group")) remover.setGroupTesting(true);
+        if (mode.equals("incremental")) remover.setIncrementalCheck(true);
+        if (mode.endsWith("ordered")) remover.setImpactOrdering(true);
+        if (mode.equals("sleep sets")) remover.setPartialOrderReduction(true);
+        return remover;
+    }
+}
@@ -0,0 +1,96 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrGraph;
+import com.dcr.traversal.UniqueTraceFinder;
+import com.dcr.utils.RandomizedCheck;
+
+/// <summary>
+/// Checks that group testing keeps the guarantee of trying one candidate at a time - the output passes the comparison
+/// each removal had to pass - though the removed set may differ: On the graph of each seed, the output of a removal
+/// with group testing, alone and with impact ordering, must pass CompareTraces against the input wherever the output
+/// of single candidates does, and with incremental checks, keep the language. Over all seeds, groups in the order of
+/// impact ordering must make fewer comparisons than groups and than single candidates - and with incremental checks,
+/// visit fewer states as well. Groups in the graph's own order must not make more than 1% more comparisons than single
+/// candidates, as their size falls back to one when most candidates are kept.
+/// </summary>
+public class GroupTestingCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("GroupTestingCheck");
+        int seeds = RandomizedCheck.Seeds(args, 200);
+        StringBuilder statistics = new StringBuilder();
+
+        for (boolean incremental : new boolean[] { false, true })
+        {
+            // Of single candidates, groups and ordered groups
+            long[] comparisons = new long[3], states = new long[3];
+            for (int seed = 0; seed < seeds; seed++)
+            {
+                DcrGraph graph = RandomizedCheck.GraphFor(seed);
+                String at = "seed " + seed + (incremental ? " incremental" : "") + ": ";
+
+                DcrGraph[] outputs = new DcrGraph[3];
+                for (int mode = 0; mode < 3; mode++)
+                {
+                    RedundancyRemover remover = new RedundancyRemover();
+                    remover.setIncrementalCheck(incremental);
+                    remover.setGroupTesting(mode > 0);
+                    remover.setImpactOrdering(mode == 2);
+                    outputs[mode] = remover.RemoveRedundancy(graph);
+                    comparisons[mode] += remover.getComparisonsMade();
+                    states[mode] += remover.getStatesVisited();
+
+                    long lost = graph.getRelationsCount() - outputs[mode].getRelationsCount();
+                    check.Check(lost == remover.getRedundantRelationsFound(), at + remover.getRedundantRelationsFound()
+                            + " relations reported redundant in mode " + mode + ", but the output lost " + lost);
+                }
+
+                for (int mode = 1; mode < 3; mode++)
+                {
+                    String of = mode == 1 ? "groups" : "ordered groups";
+                    if (incremental)
+                    {
+                        check.Check(RemovalLanguage.IsKeptByRelationRemovals(graph, outputs[mode]), at + "the output of " + of + " changes the language");
+                    }
+                    else
+                    {
+                        // Trace-sets found by a search of one graph need not pass as a whole in another, so a group's output
+                        // only has to pass where the output of single candidates does
+                        check.Check(IsKeptByTraces(graph, outputs[mode]) || !IsKeptByTraces(graph, outputs[0]), at + "the output of " + of + " fails the comparison");
+                    }
+                }
+            }
+
+            String mode = incremental ? "incremental" : "trace sets";
+            check.Check(comparisons[2] < comparisons[1] && comparisons[2] < comparisons[0], mode + ": ordered groups made " + comparisons[2]
+                    + " comparisons, groups " + comparisons[1] + ", single candidates " + comparisons[0]);
+            check.Check(comparisons[1] * 100 <= comparisons[0] * 101, mode + ": groups made " + comparisons[1]
+                    + " comparisons, single candidates " + comparisons[0]);
+            if (incremental)
+            {
+                check.Check(states[2] < states[1] && states[2] < states[0], mode + ": ordered groups visited " + states[2]
+                        + " states, groups " + states[1] + ", single candidates " + states[0]);
+            }
+            statistics.append(statistics.length() == 0 ? "" : " ").append(mode.replace(' ', '-')).append(": comparisons single/grouped/ordered=")
+                    .append(comparisons[0]).append('/').append(comparisons[1]).append('/').append(comparisons[2])
+                    .append(" states=").append(states[0]).append('/').append(states[1]).append('/').append(states[2]);
+        }
+
+        check.Finish(statistics.toString());
+    }
+
+    // Whether CompareTraces finds the trace-set of the input in the output - indexed like the input, with the removed
+    // activities fixed as excluded
+    private static boolean IsKeptByTraces(DcrGraph input, DcrGraph output)
+    {
+        ByteDcrGraph original = new ByteDcrGraph(input, null);
+        ByteDcrGraph reference = original.Copy();
+        for (String id : original.getIndexToActivityId().values())
+        {
+            if (output.getActivity(id) == null) reference.RemoveActivity(id);
+        }
+        return new UniqueTraceFinder(original).CompareTraces(new ByteDcrGraph(output, reference));
+    }
+}
@@ -0,0 +1,49 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrGraph;
+import com.dcr.traversal.LanguageEquivalenceChecker;
+import com.dcr.utils.RandomizedCheck;
+
+/// <summary>
+/// Exact language checks of the output of a redundancy removal, by LanguageEquivalenceChecker, and the description of
+/// what a removal did to compare removals by.
+/// </summary>
+class RemovalLanguage
+{
+    /// <returns>Whether the output has the language of the input graph</returns>
+    static boolean IsKept(DcrGraph input, DcrGraph output)
+    {
+        ByteDcrGraph original = new ByteDcrGraph(input, null);
+        return new LanguageEquivalenceChecker(original).IsEquivalent(new ByteDcrGraph(output, WithoutRemovedActivities(original, output)));
+    }
+
+    /// <returns>Whether the output has the language of the input graph without the activities the removal removed: The
+    /// relations are removed after the activities, so only what the relation removals did is checked. Activity removals
+    /// compared by CompareTraces may change the language, as it compares the trace-sets found by its search.</returns>
+    static boolean IsKeptByRelationRemovals(DcrGraph input, DcrGraph output)
+    {
+        ByteDcrGraph reference = WithoutRemovedActivities(new ByteDcrGraph(input, null), output);
+        return new LanguageEquivalenceChecker(reference).IsEquivalent(new ByteDcrGraph(output, reference));
+    }
+
+    /// <returns>The output graph and what was removed, in order</returns>
+    static String Describe(RedundancyRemover remover, DcrGraph output)
+    {
+        return RandomizedCheck.Describe(output) + " | activities " + remover.getRedundantActivitiesFound()
+                + ", includes " + remover.IncludesRemoved + ", excludes " + remover.ExcludesRemoved
+                + ", responses " + remover.ResponsesRemoved + ", conditions " + remover.ConditionsRemoved
+                + ", proven " + remover.getRelationsProvenRedundant();
+    }
+
+    // The compiled input, with the activities missing from the output fixed as excluded - indexed like the input
+    private static ByteDcrGraph WithoutRemovedActivities(ByteDcrGraph original, DcrGraph output)
+    {
+        ByteDcrGraph res = original.Copy();
+        for (String id : original.getIndexToActivityId().values())
+        {
+            if (output.getActivity(id) == null) res.RemoveActivity(id);
+        }
+        return res;
+    }
+}
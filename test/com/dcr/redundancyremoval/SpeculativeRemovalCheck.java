@@ -0,0 +1,42 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.DcrGraph;
+import com.dcr.utils.RandomizedCheck;
+
+/// <summary>
+/// Checks that trying candidates speculatively on several workers changes nothing but the time taken: On the graph of
+/// each seed, a removal with 4 workers must give the graph of the sequential removal, remove the same relations in
+/// the same order and count the same comparisons - comparing by trace-sets, and by automaton with sleep sets.
+/// </summary>
+public class SpeculativeRemovalCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("SpeculativeRemovalCheck");
+        int seeds = RandomizedCheck.Seeds(args, 200);
+        long comparisons = 0;
+
+        for (boolean partialOrderReduction : new boolean[] { false, true })
+        {
+            for (int seed = 0; seed < seeds; seed++)
+            {
+                DcrGraph graph = RandomizedCheck.GraphFor(seed);
+                String at = "seed " + seed + (partialOrderReduction ? " with sleep sets: " : ": ");
+
+                RedundancyRemover sequential = new RedundancyRemover();
+                sequential.setPartialOrderReduction(partialOrderReduction);
+                String expected = RemovalLanguage.Describe(sequential, sequential.RemoveRedundancy(graph));
+                RedundancyRemover speculative = new RedundancyRemover(4);
+                speculative.setPartialOrderReduction(partialOrderReduction);
+                String actual = RemovalLanguage.Describe(speculative, speculative.RemoveRedundancy(graph));
+
+                comparisons += sequential.getComparisonsMade();
+                check.Check(actual.equals(expected), at + "\n  expected " + expected + "\n  got      " + actual);
+                check.Check(speculative.getComparisonsMade() == sequential.getComparisonsMade(),
+                        at + speculative.getComparisonsMade() + " comparisons counted, expected " + sequential.getComparisonsMade());
+            }
+        }
+
+        check.Finish("comparisons=" + comparisons);
+    }
+}
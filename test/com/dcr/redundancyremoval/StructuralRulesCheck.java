@@ -0,0 +1,63 @@
+package com.dcr.redundancyremoval;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.RelationType;
+import com.dcr.traversal.LanguageEquivalenceChecker;
+import com.dcr.utils.RandomizedCheck;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/// <summary>
+/// Checks that StructuralRules only prove relations redundant that are: On the graph of each seed, and on it without
+/// each of its activities (as the rules are applied after activities are removed), removing any relation the rules
+/// prove redundant must keep the language, as decided by LanguageEquivalenceChecker. As they are to spare the
+/// comparisons of many candidates, the rules must prove at least a third of all those relations redundant.
+/// </summary>
+public class StructuralRulesCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("StructuralRulesCheck");
+        int seeds = RandomizedCheck.Seeds(args, 300);
+        int relations = 0, proven = 0;
+
+        for (int seed = 0; seed < seeds; seed++)
+        {
+            ByteDcrGraph graph = new ByteDcrGraph(RandomizedCheck.GraphFor(seed), null);
+            List<ByteDcrGraph> graphs = new ArrayList<>();
+            graphs.add(graph);
+            for (String id : graph.getIndexToActivityId().values())
+            {
+                ByteDcrGraph reduced = graph.Copy();
+                reduced.RemoveActivity(id);
+                graphs.add(reduced);
+            }
+
+            for (ByteDcrGraph candidate : graphs)
+            {
+                StructuralRules rules = new StructuralRules(candidate);
+                LanguageEquivalenceChecker checker = new LanguageEquivalenceChecker(candidate);
+                int activityCount = candidate.getState().getActivityCount();
+                for (int source = 0; source < activityCount; source++)
+                {
+                    for (int target = 0; target < activityCount; target++)
+                    {
+                        for (RelationType relationType : RelationType.values())
+                        {
+                            if (!RandomizedCheck.HasRelation(candidate, relationType, source, target)) continue;
+                            relations++;
+                            if (!rules.IsRedundant(relationType, source, target)) continue;
+                            proven++;
+                            check.Check(checker.IsEquivalent(candidate.WithoutRelation(relationType, source, target)),
+                                    "seed " + seed + ": " + relationType + " " + source + "->" + target + " was proven redundant, but is not");
+                        }
+                    }
+                }
+            }
+        }
+
+        check.Check(proven * 3 >= relations, "only " + proven + " of " + relations + " relations were proven redundant");
+        check.Finish("relations=" + relations + " proven=" + proven);
+    }
+}
@@ -0,0 +1,92 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.RelationType;
+import com.dcr.utils.RandomizedCheck;
+
+import java.util.List;
+import java.util.Random;
+
+/// <summary>
+/// Checks IncrementalLanguageChecker against LanguageEquivalenceChecker on the graph of each seed:
+///  - For every single relation removal, at times along with a second one, the answers must agree and every
+///    counterexample must be accepted by exactly one of the graphs - and as only the pairs of diverged states are
+///    explored, the incremental checker must visit fewer pairs than the full one over all of them
+///  - Over a chain of random removals, rebasing onto some of them, a checker that was rebased must answer and count
+///    its base states as a fresh one would, and a repeated comparison must count no base states
+/// </summary>
+public class IncrementalCheckerCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("IncrementalCheckerCheck");
+        int seeds = RandomizedCheck.Seeds(args, 300);
+        int rebases = 0;
+        long pairsFull = 0, pairsIncremental = 0;
+
+        for (int seed = 0; seed < seeds; seed++)
+        {
+            Random random = new Random(seed);
+            ByteDcrGraph graph = new ByteDcrGraph(RandomizedCheck.GraphFor(seed), null);
+            int activityCount = graph.getState().getActivityCount();
+
+            IncrementalLanguageChecker incremental = new IncrementalLanguageChecker(graph);
+            LanguageEquivalenceChecker full = new LanguageEquivalenceChecker(graph);
+            for (int source = 0; source < activityCount; source++)
+            {
+                for (int target = 0; target < activityCount; target++)
+                {
+                    for (RelationType relationType : RelationType.values())
+                    {
+                        if (!RandomizedCheck.HasRelation(graph, relationType, source, target)) continue;
+
+                        ByteDcrGraph variant = graph.WithoutRelation(relationType, source, target);
+                        if (random.nextInt(3) == 0)
+                        {
+                            variant = variant.WithoutRelation(RelationType.Response, random.nextInt(activityCount), random.nextInt(activityCount));
+                        }
+                        String at = "seed " + seed + " without " + relationType + " " + source + "->" + target + ": ";
+                        boolean equivalent = incremental.IsEquivalent(variant);
+                        check.Check(equivalent == full.IsEquivalent(variant), at + "incremental=" + equivalent + ", full=" + !equivalent);
+                        pairsIncremental += incremental.getPairsVisited();
+                        pairsFull += full.getPairsVisited();
+                        if (!equivalent)
+                        {
+                            List<Integer> counterexample = incremental.getCounterexample();
+                            check.Check(RandomizedCheck.Accepts(graph, counterexample) != RandomizedCheck.Accepts(variant, counterexample),
+                                    at + "counterexample " + counterexample + " is accepted by both graphs or neither");
+                        }
+                    }
+                }
+            }
+
+            ByteDcrGraph base = graph;
+            IncrementalLanguageChecker rebased = new IncrementalLanguageChecker(base);
+            for (int step = 0; step < 12 && activityCount > 0; step++)
+            {
+                ByteDcrGraph variant = base.WithoutRelation(RelationType.values()[random.nextInt(4)], random.nextInt(activityCount), random.nextInt(activityCount));
+                IncrementalLanguageChecker fresh = new IncrementalLanguageChecker(base);
+                String at = "seed " + seed + " step " + step + ": ";
+
+                boolean equivalent = rebased.IsEquivalent(variant);
+                check.Check(equivalent == fresh.IsEquivalent(variant) && equivalent == new LanguageEquivalenceChecker(base).IsEquivalent(variant),
+                        at + "the rebased checker answers " + equivalent + " alone");
+                check.Check(rebased.getBaseStateCount() == fresh.getBaseStateCount(),
+                        at + rebased.getBaseStateCount() + " base states, a fresh checker has " + fresh.getBaseStateCount());
+                rebased.IsEquivalent(variant);
+                check.Check(rebased.getLastResult().getStatesVisited() == rebased.getPairsVisited(), at + "a repeated comparison counted base states");
+
+                // Rebase onto the equivalent ones, as the remover does, and sometimes onto any
+                if (equivalent || random.nextInt(3) == 0)
+                {
+                    base = variant;
+                    rebased.Rebase(variant);
+                    rebases++;
+                }
+            }
+        }
+
+        check.Check(pairsIncremental < pairsFull, "the incremental checker visited " + pairsIncremental + " pairs, the full one " + pairsFull);
+        check.Finish("rebases=" + rebases + " pairsFull=" + pairsFull + " pairsIncremental=" + pairsIncremental);
+    }
+}
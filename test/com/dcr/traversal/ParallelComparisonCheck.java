@@ -0,0 +1,68 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.utils.ComparableList;
+import com.dcr.utils.RandomizedCheck;
+
+import java.util.List;
+import java.util.Random;
+
+/// <summary>
+/// Checks that the parallelism of a UniqueTraceFinder changes nothing but the speed: On random graphs, each graph is
+/// compared with itself, with every removal of a single relation and with every removal of a single activity. The
+/// trace-set comparison of a finder with 4 workers must answer exactly as a sequential one. Compared by automaton,
+/// 2 and 4 workers must answer as a sequential LanguageEquivalenceChecker, and give the same counterexample - accepted
+/// by exactly one of the graphs, and no longer than the sequential one.
+/// </summary>
+public class ParallelComparisonCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("ParallelComparisonCheck");
+        int seeds = RandomizedCheck.Seeds(args, 200);
+        int counterexamples = 0;
+
+        for (int seed = 0; seed < seeds; seed++)
+        {
+            Random random = new Random(seed);
+            ByteDcrGraph graph = new ByteDcrGraph(RandomizedCheck.RandomGraph(random, 3 + random.nextInt(6)), null);
+
+            UniqueTraceFinder sequentialTraces = new UniqueTraceFinder(graph);
+            UniqueTraceFinder parallelTraces = new UniqueTraceFinder(graph, 4);
+            LanguageEquivalenceChecker sequential = new LanguageEquivalenceChecker(graph);
+            UniqueTraceFinder[] parallel = { new UniqueTraceFinder(graph, 2), new UniqueTraceFinder(graph, 4) };
+            for (UniqueTraceFinder finder : parallel)
+            {
+                finder.setCompareByAutomaton(true);
+            }
+
+            for (ByteDcrGraph variant : PartialOrderReductionCheck.Variants(graph))
+            {
+                String at = "seed " + seed + ": ";
+                check.Check(parallelTraces.CompareTraces(variant) == sequentialTraces.CompareTraces(variant),
+                        at + "the trace-sets compare differently with 4 workers");
+
+                boolean expected = sequential.IsEquivalent(variant);
+                ComparableList<Integer> expectedCounterexample = sequential.getCounterexample();
+                List<String> first = null;
+                for (UniqueTraceFinder finder : parallel)
+                {
+                    boolean actual = finder.CompareTraces(variant);
+                    check.Check(actual == expected, at + "parallel=" + actual + ", sequential=" + expected);
+                    List<String> counterexample = finder.getComparisonFailureTrace();
+                    if (first == null) first = counterexample;
+                    check.Check(first == null ? counterexample == null : first.equals(counterexample),
+                            at + "counterexamples " + first + " and " + counterexample + " with 2 and 4 workers");
+                    if (actual || counterexample == null) continue;
+
+                    check.Check(finder.IsCounterexample(counterexample, variant), at + "counterexample " + counterexample + " is accepted by both graphs or neither");
+                    check.Check(expectedCounterexample == null || counterexample.size() <= expectedCounterexample.size(),
+                            at + "counterexample " + counterexample + " is longer than the sequential " + expectedCounterexample);
+                }
+                if (first != null) counterexamples++;
+            }
+        }
+
+        check.Finish("counterexamples=" + counterexamples);
+    }
+}
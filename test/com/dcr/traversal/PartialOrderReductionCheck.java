@@ -0,0 +1,131 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.datamodels.RelationType;
+import com.dcr.utils.RandomizedCheck;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ObjIntConsumer;
+
+/// <summary>
+/// Checks that sleep sets leave the answers of LanguageEquivalenceChecker as they are: On random graphs, each graph is
+/// compared with itself, with every removal of a single relation and with every removal of a single activity - with
+/// and without the reduction, and with the reduction keeping its states and sleep sets off the heap. Every
+/// counterexample must be accepted by exactly one of the graphs, and the reduction must visit fewer pairs of states
+/// over all comparisons. As the sleep sets are kept along with the states, a reduced search must not store any state
+/// twice: A comparison stores at most one entry per pair visited, and UniqueStateFinder one entry per state found, each
+/// in a single store.
+/// </summary>
+public class PartialOrderReductionCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("PartialOrderReductionCheck");
+        int seeds = RandomizedCheck.Seeds(args, 300);
+        long pairsFull = 0, pairsReduced = 0;
+
+        for (int seed = 0; seed < seeds; seed++)
+        {
+            Random random = new Random(seed);
+            ByteDcrGraph graph = new ByteDcrGraph(RandomizedCheck.RandomGraph(random, 3 + random.nextInt(6)), null);
+
+            LanguageEquivalenceChecker full = new LanguageEquivalenceChecker(graph);
+            LanguageEquivalenceChecker reduced = new LanguageEquivalenceChecker(graph);
+            reduced.setPartialOrderReduction(true);
+            LanguageEquivalenceChecker reducedOffHeap = new LanguageEquivalenceChecker(graph, OffHeapSeenStateStore.InMemory());
+            reducedOffHeap.setPartialOrderReduction(true);
+            CountingFactory counting = new CountingFactory();
+            LanguageEquivalenceChecker reducedCounted = new LanguageEquivalenceChecker(graph, counting);
+            reducedCounted.setPartialOrderReduction(true);
+
+            for (ByteDcrGraph variant : Variants(graph))
+            {
+                boolean expected = full.IsEquivalent(variant);
+                boolean actual = reduced.IsEquivalent(variant);
+                pairsFull += full.getPairsVisited();
+                pairsReduced += reduced.getPairsVisited();
+                check.Check(actual == expected, "seed " + seed + ": reduced=" + actual + ", full=" + expected);
+                check.Check(reducedOffHeap.IsEquivalent(variant) == expected, "seed " + seed + ": off-heap differs");
+                counting.Stores = 0;
+                counting.Entries = 0;
+                reducedCounted.IsEquivalent(variant);
+                check.Check(counting.Stores <= 1 && counting.Entries <= reducedCounted.getPairsVisited(), "seed " + seed + ": "
+                        + counting.Entries + " entries stored in " + counting.Stores + " stores for " + reducedCounted.getPairsVisited() + " pairs visited");
+                if (!actual)
+                {
+                    List<Integer> counterexample = reduced.getCounterexample();
+                    check.Check(RandomizedCheck.Accepts(graph, counterexample) != RandomizedCheck.Accepts(variant, counterexample),
+                            "seed " + seed + ": counterexample " + counterexample + " is accepted by both graphs or neither");
+                }
+            }
+
+            int states = new UniqueStateFinder().GetUniqueStatesWithRunnableActivityCount(graph).size();
+            CountingFactory finderStores = new CountingFactory();
+            UniqueStateFinder finder = new UniqueStateFinder(1, finderStores);
+            finder.setPartialOrderReduction(true);
+            finder.GetUniqueStatesWithRunnableActivityCount(graph);
+            check.Check(finderStores.Stores == 1 && finderStores.Entries == states, "seed " + seed + ": " + finderStores.Entries
+                    + " entries stored in " + finderStores.Stores + " stores for " + states + " states");
+        }
+
+        check.Check(pairsReduced < pairsFull, "the reduction visited " + pairsReduced + " pairs, the full search " + pairsFull);
+        check.Finish("pairsFull=" + pairsFull + " pairsReduced=" + pairsReduced);
+    }
+
+    // Creates heap stores, counting them and the entries they held when closed
+    private static class CountingFactory implements SeenStateStore.Factory
+    {
+        int Stores;
+        long Entries;
+
+        @Override
+        public SeenStateStore Create(int activityCount, int payloadWords, boolean concurrent)
+        {
+            Stores++;
+            SeenStateStore store = new HeapSeenStateStore(activityCount, payloadWords, concurrent);
+            return new SeenStateStore()
+            {
+                @Override public int Get(DcrState state, long[] payload) { return store.Get(state, payload); }
+                @Override public int Put(DcrState state, int value, long[] payload) { return store.Put(state, value, payload); }
+                @Override public boolean PutIfAbsent(DcrState state, int value, long[] payload) { return store.PutIfAbsent(state, value, payload); }
+                @Override public long getSize() { return store.getSize(); }
+                @Override public void ForEach(ObjIntConsumer<DcrState> action) { store.ForEach(action); }
+
+                @Override
+                public void close()
+                {
+                    Entries += store.getSize();
+                    store.close();
+                }
+            };
+        }
+    }
+
+    // The graph itself, and the graph without each of its relations or activities
+    static List<ByteDcrGraph> Variants(ByteDcrGraph graph)
+    {
+        List<ByteDcrGraph> variants = new ArrayList<>();
+        variants.add(graph.Copy());
+        int activityCount = graph.getState().getActivityCount();
+        for (int source = 0; source < activityCount; source++)
+        {
+            for (int target = 0; target < activityCount; target++)
+            {
+                if (graph.HasInclusion(source, target)) variants.add(graph.WithoutRelation(RelationType.Inclusion, source, target));
+                if (graph.HasExclusion(source, target)) variants.add(graph.WithoutRelation(RelationType.Exclusion, source, target));
+                if (graph.HasResponse(source, target)) variants.add(graph.WithoutRelation(RelationType.Response, source, target));
+                if (graph.HasCondition(source, target)) variants.add(graph.WithoutRelation(RelationType.Condition, source, target));
+            }
+        }
+        for (String id : graph.getIndexToActivityId().values())
+        {
+            ByteDcrGraph variant = graph.Copy();
+            variant.RemoveActivity(id);
+            variants.add(variant);
+        }
+        return variants;
+    }
+}
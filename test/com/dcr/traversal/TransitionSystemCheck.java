@@ -0,0 +1,99 @@
+package com.dcr.traversal;
+
+import com.dcr.datamodels.ByteDcrGraph;
+import com.dcr.datamodels.DcrGraph;
+import com.dcr.datamodels.DcrState;
+import com.dcr.utils.RandomizedCheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/// <summary>
+/// Checks the compiled TransitionSystem against exploring the graph: On the graph of each seed, its states and runnable
+/// activities must be those UniqueStateFinder finds, its language that of UniqueTraceFinder - also when enumerated by a
+/// finder over the compiled system - and comparisons with every single-activity removal must agree with the default
+/// finder. Compiling off the heap gives the same system, and a truncated system is refused by the finder.
+/// </summary>
+public class TransitionSystemCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        RandomizedCheck check = new RandomizedCheck("TransitionSystemCheck");
+        int seeds = RandomizedCheck.Seeds(args, 200);
+        long states = 0;
+
+        for (int seed = 0; seed < seeds; seed++)
+        {
+            DcrGraph graph = RandomizedCheck.GraphFor(seed);
+            ByteDcrGraph byteGraph = new ByteDcrGraph(graph, null);
+            String at = "seed " + seed + ": ";
+
+            HashMap<DcrState, Integer> expectedStates = new UniqueStateFinder().GetUniqueStatesWithRunnableActivityCount(graph);
+            TransitionSystem transitionSystem = TransitionSystem.Compile(byteGraph);
+            states += transitionSystem.getStateCount();
+            check.Check(transitionSystem.getStateCount() == expectedStates.size(), at + transitionSystem.getStateCount() + " states, expected " + expectedStates.size());
+            long expectedRunnable = expectedStates.values().stream().mapToInt(x -> x).sum();
+            check.Check(transitionSystem.getRunnableCountSum() == expectedRunnable, at + transitionSystem.getRunnableCountSum() + " transitions, expected " + expectedRunnable);
+
+            UniqueTraceFinder finder = new UniqueTraceFinder(byteGraph);
+            List<String> expectedLanguage = Sorted(finder.getLanguageAsListOfTracesWithIds());
+            check.Check(Language(transitionSystem).equals(expectedLanguage), at + "the enumerated language differs");
+            check.Check(transitionSystem.HasAcceptingTrace() != finder.hasNoAcceptingTrace(), at + "HasAcceptingTrace differs");
+
+            UniqueTraceFinder compiledFinder = new UniqueTraceFinder(byteGraph, transitionSystem);
+            check.Check(Sorted(compiledFinder.getLanguageAsListOfTracesWithIds()).equals(expectedLanguage), at + "the language of the finder over the compiled system differs");
+            check.Check(compiledFinder.CompareTraces(byteGraph.Copy()), at + "the graph differs from its own compiled system");
+            for (String id : byteGraph.getIndexToActivityId().values())
+            {
+                ByteDcrGraph variant = byteGraph.Copy();
+                variant.RemoveActivity(id);
+                check.Check(compiledFinder.CompareTraces(variant) == finder.CompareTraces(variant), at + "comparing without " + id + " differs");
+            }
+
+            TransitionSystem offHeap = new UniqueStateFinder(1, OffHeapSeenStateStore.InMemory()).CompileTransitionSystem(byteGraph);
+            check.Check(offHeap.getStateCount() == transitionSystem.getStateCount() && Language(offHeap).equals(expectedLanguage), at + "compiling off the heap differs");
+
+            TraversalBudget budget = TraversalBudget.Unlimited();
+            budget.setMaxStates(2);
+            UniqueStateFinder bounded = new UniqueStateFinder();
+            bounded.setBudget(budget);
+            TransitionSystem truncated = bounded.CompileTransitionSystem(byteGraph);
+            if (truncated.getCompileResult().isTruncated())
+            {
+                boolean refused = false;
+                try
+                {
+                    new UniqueTraceFinder(byteGraph, truncated);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    refused = true;
+                }
+                check.Check(refused, at + "a truncated system was accepted by the finder");
+            }
+        }
+
+        check.Finish("states=" + states);
+    }
+
+    static List<String> Language(TransitionSystem transitionSystem)
+    {
+        List<String> res = new ArrayList<>();
+        transitionSystem.ForEachUniqueTrace(trace -> {
+            StringBuilder ids = new StringBuilder();
+            for (int activity : trace) ids.append(transitionSystem.getIndexToActivityId().get(activity)).append(',');
+            res.add(ids.toString());
+        });
+        Collections.sort(res);
+        return res;
+    }
+
+    static List<String> Sorted(List<List<String>> traces)
+    {
+        return traces.stream().map(trace -> trace.stream().map(id -> id + ",").collect(Collectors.joining()))
+                .sorted().collect(Collectors.toList());
+    }
+}
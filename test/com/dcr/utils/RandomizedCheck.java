@@ -0,0 +1,189 @@
+package com.dcr.utils;
+
+import com.dcr.datamodels.*;
+import com.dcr.main.FrontEnd;
+import com.dcr.statistics.Confidence;
+import com.dcr.statistics.Threshold;
+
+import java.util.*;
+
+/// <summary>
+/// Shared part of the randomized checks: Seeded random logs and graphs, and the tally of a check. A check is a main
+/// class taking the amount of seeds as its optional argument. It prints every failure and exits with status 1 if there
+/// were any, so it can be run from a script.
+/// </summary>
+public class RandomizedCheck
+{
+    private final String _name;
+    private int _checks;
+    private int _failures;
+
+    public int getChecks() { return _checks; }
+    public int getFailures() { return _failures; }
+
+    public RandomizedCheck(String name)
+    {
+        _name = name;
+        // Relations with any confidence count, as when mining
+        Threshold.setValue(0.0);
+    }
+
+    public void Check(boolean condition, String description)
+    {
+        _checks++;
+        if (!condition)
+        {
+            _failures++;
+            System.out.println("FAIL " + _name + ": " + description);
+        }
+    }
+
+    /// <summary>
+    /// Prints the tally with the given statistics, and exits with status 1 if any check failed.
+    /// </summary>
+    public void Finish(String statistics)
+    {
+        System.out.println(_name + ": checks=" + _checks + " failures=" + _failures + (statistics.isEmpty() ? "" : " " + statistics));
+        if (_failures > 0) System.exit(1);
+    }
+
+    public static int Seeds(String[] args, int defaultSeeds)
+    {
+        return args.length > 0 ? Integer.parseInt(args[0]) : defaultSeeds;
+    }
+
+    /// <summary>
+    /// The log of a seed: 3-6 activities A, B, ... and 2-7 traces of 1-6 events each.
+    /// </summary>
+    public static Log LogFor(int seed)
+    {
+        Random random = new Random(seed);
+        return RandomLog(random, 3 + random.nextInt(4), 2 + random.nextInt(6), 6);
+    }
+
+    /// <summary>
+    /// The graph of a seed: Mined from the seed's log for even seeds, a random graph of 3-7 activities for odd ones.
+    /// </summary>
+    public static DcrGraph GraphFor(int seed) throws Exception
+    {
+        Random random = new Random(seed);
+        Log log = RandomLog(random, 3 + random.nextInt(4), 2 + random.nextInt(6), 6);
+        return seed % 2 == 0 ? FrontEnd.MineLog(log) : RandomGraph(random, 3 + random.nextInt(5));
+    }
+
+    public static Log RandomLog(Random random, int alphabetSize, int traceCount, int maxTraceLength)
+    {
+        Log log = new Log();
+        for (int t = 0; t < traceCount; t++)
+        {
+            LogTrace trace = new LogTrace();
+            trace.setId("t" + t);
+            int length = 1 + random.nextInt(maxTraceLength);
+            for (int i = 0; i < length; i++)
+            {
+                String id = ActivityId(random.nextInt(alphabetSize));
+                trace.Add(new LogEvent(id, "n" + id));
+            }
+            log.AddTrace(trace);
+        }
+        return log;
+    }
+
+    /// <summary>
+    /// A graph with random markings, and each possible relation present with a fixed probability - mostly not a graph
+    /// any log would be mined to, so it reaches markings and relation combinations the miner never produces.
+    /// </summary>
+    public static DcrGraph RandomGraph(Random random, int activityCount) throws Exception
+    {
+        DcrGraph graph = new DcrGraph();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < activityCount; i++)
+        {
+            String id = ActivityId(i);
+            ids.add(id);
+            graph.AddActivity(id, id, "r");
+        }
+        for (String id : ids)
+        {
+            graph.SetIncluded(random.nextInt(4) != 0, id);
+            graph.SetPending(random.nextInt(3) == 0, id);
+            graph.SetExecuted(random.nextInt(6) == 0, id);
+        }
+        for (String source : ids)
+        {
+            for (String target : ids)
+            {
+                int includeExclude = random.nextInt(10);
+                if (includeExclude == 0) graph.AddIncludeExclude(true, source, target);
+                else if (includeExclude == 1) graph.AddIncludeExclude(false, source, target);
+                if (random.nextInt(6) == 0 && !source.equals(target)) graph.AddResponse(source, target);
+                if (random.nextInt(6) == 0) graph.AddCondition(source, target);
+            }
+        }
+        return graph;
+    }
+
+    /// <returns>Whether the graph (from its current state) accepts the trace of activity indexes</returns>
+    public static boolean Accepts(ByteDcrGraph graph, List<Integer> trace)
+    {
+        ByteDcrGraph replay = graph.Copy();
+        for (int activity : trace)
+        {
+            if (!replay.getState().CanRun(activity)) return false;
+            replay.ExecuteActivity(activity);
+        }
+        return replay.getState().IsFinalState();
+    }
+
+    /// <returns>Whether the compiled graph has the relation</returns>
+    public static boolean HasRelation(ByteDcrGraph graph, RelationType relationType, int source, int target)
+    {
+        switch (relationType)
+        {
+            case Inclusion:
+                return graph.HasInclusion(source, target);
+            case Exclusion:
+                return graph.HasExclusion(source, target);
+            case Response:
+                return graph.HasResponse(source, target);
+            default:
+                return graph.HasCondition(source, target);
+        }
+    }
+
+    /// <summary>
+    /// The activities with their markings and the relations with their confidences, sorted - equal for equal graphs,
+    /// whatever order their maps are in.
+    /// </summary>
+    public static String Describe(DcrGraph graph)
+    {
+        List<String> parts = new ArrayList<>();
+        for (Activity activity : graph.getActivities())
+        {
+            parts.add(activity.getId() + (activity.isIncluded() ? " included" : "") + (activity.isPending() ? " pending" : "")
+                    + (activity.isExecuted() ? " executed" : ""));
+        }
+        DescribeRelations(parts, "response", graph.getResponses());
+        DescribeRelations(parts, "condition", graph.getConditions());
+        DescribeRelations(parts, "include/exclude", graph.getIncludeExcludes());
+        Collections.sort(parts);
+        return String.join("; ", parts);
+    }
+
+    private static void DescribeRelations(List<String> parts, String name, HashMap<Activity, HashMap<Activity, Confidence>> relations)
+    {
+        for (Map.Entry<Activity, HashMap<Activity, Confidence>> source : relations.entrySet())
+        {
+            for (Map.Entry<Activity, Confidence> target : source.getValue().entrySet())
+            {
+                parts.add(source.getKey().getId() + " " + name + " " + target.getKey().getId() + " " + target.getValue().get());
+            }
+        }
+    }
+
+    private static String ActivityId(int index)
+    {
+        // Interned, as DcrGraph.getActivity compares ids by reference
+        return String.valueOf((char) ('A' + index)).intern();
+    }
+}